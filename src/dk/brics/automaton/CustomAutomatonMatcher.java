@@ -44,123 +44,114 @@ import java.util.regex.MatchResult;
  */
 public class CustomAutomatonMatcher implements MatchResult {
 
-	CustomAutomatonMatcher(final CharSequence chars, final CustomRunAutomaton automaton) {
+	CustomAutomatonMatcher(final CharSequence chars, final IDAutomaton automaton) {
 		this.chars = chars;
 		this.automaton = automaton;
 	}
 
-	private final CustomRunAutomaton automaton;
+	private final IDAutomaton automaton;
 	private final CharSequence chars;
 
 	private int matchStart = -1;
 
 	private int matchEnd = -1;
-	private ArrayList<String> matchIDs;
 
-	private ArrayList<String> getIDs(int state){
-		ArrayList<String> res = new ArrayList<String>();
+	/**
+	 * the state, reached through the delimiter, holding the IDs of the last match from findWithDelimitedID() (-1 if none)
+	 */
+	private int matchIDState = -1;
 
-		ArrayList<Character> validCharacters = automaton.getValidChars(state);
+	/**
+	 * if set, the offsets at which matches from findWithDelimitedID() may start and end (see setBoundaries())
+	 */
+	private boolean[] validStarts = null;
+	private boolean[] validEnds = null;
 
-		for (char c : validCharacters){
-			int step = automaton.step(state,c);
-			
-			if (step != -1 && step != state){
-				if (automaton.accept[step]){
-					res.add(""+c);
-				}
-				
-				ArrayList<String> list = getIDs(step);
-				
-				for (int i = 0; i < list.size(); i++)
-					res.add("" + c + list.get(i));
-			}
-		}
-		
-		return res;
+	/**
+	 * Restricts the matches of findWithDelimitedID() to those starting and ending at given offsets (e.g. word boundaries).
+	 * Runs of the automaton are then only started at the valid start offsets, rather than at every offset of the text.
+	 * @param validStarts whether a match may start at each offset of the text (0 to length, inclusive)
+	 * @param validEnds whether a match may end at each offset of the text (0 to length, inclusive)
+	 */
+	public void setBoundaries(boolean[] validStarts, boolean[] validEnds){
+		if (validStarts.length <= chars.length() || validEnds.length <= chars.length())
+			throw new IllegalArgumentException("Boundaries must be given for each offset of the text");
+		this.validStarts = validStarts;
+		this.validEnds = validEnds;
 	}
-	
+
 	/**
-	 * Equivalent to find(), but for automatons with IDs that have been separated from the regular expression by delimiter
+	 * the state of the automaton after the last match from findWithDelimitedID(), from which the run that found the match
+	 * is continued when looking for longer matches with the same start
+	 */
+	private int runState = -1;
+
+	/**
+	 * Equivalent to find(), but for automatons with IDs that have been separated from the regular expression by delimiter.
+	 * All matches are returned, ordered by start and then by end coordinate (i.e. also matches that are contained in, or overlap,
+	 * earlier matches). A run of the automaton is started at each (valid, see setBoundaries()) start position, and followed
+	 * until the automaton reaches a dead state. After a match, the run is continued from the end of the match on the next call.
 	 * @param delimiter
 	 * @return true if a match (delimited using delimiter) can be found, false otherwise.
 	 */
 	public boolean findWithDelimitedID(char delimiter) {
-		int begin;
-		if (getMatchStart() == -2) {
+		if (getMatchStart() == -2)
 			return false;
-		} else if (getMatchStart() == -1) {
-			begin = 0;
-		} else {
-			begin = getMatchStart();
-		}
 
-		int match_start;
-		int match_end;
-		ArrayList<String> match_ids;
-		
-		if (automaton.isAcceptDelimited(automaton.getInitialState(), delimiter)) {
+		final int initial = automaton.getInitialState();
+		if (automaton.isAcceptDelimited(initial, delimiter))
 			throw new IllegalStateException("Automaton matched the empty string");
-			/*match_start = begin;
-			match_end = begin;
-			match_ids = getIDs(automaton.step(automaton.getInitialState(),delimiter));
-			setMatch(match_start, match_end, match_ids);
-			return true;*/
-		} else {
-			match_start = -1;
-			match_end = -1;
-			match_ids = null;
-		}
 
 		final int l = getChars().length();
-		
-		if (getMatchEnd() != -1){
-			int p = automaton.getInitialState();
-			for (int i = begin; i < l; i += 1) {
-				final int new_state = automaton.step(p, getChars().charAt(i));
-				if (new_state == -1) {
-					break;
-				} else if (automaton.isAcceptDelimited(new_state, delimiter) && i+1 > getMatchEnd()) {
-					if (match_start == -1) {
-						match_start = begin;
-					}
-					match_end = i;
-					match_ids = getIDs(automaton.step(new_state,delimiter));
-					setMatch(match_start, match_end + 1, match_ids);
-					return true;
-				}
-				p = new_state;
-			}
-			begin++;
+
+		int begin;
+		int i;
+		int p;
+
+		if (getMatchStart() == -1) {
+			begin = nextStart(0);
+			i = begin;
+			p = initial;
+		} else {
+			begin = getMatchStart();
+			i = getMatchEnd();
+			p = runState;
 		}
-		
+
 		while (begin < l) {
-			int p = automaton.getInitialState();
-			for (int i = begin; i < l; i += 1) {
+			for (; i < l; i += 1) {
 				final int new_state = automaton.step(p, getChars().charAt(i));
-				if (new_state == -1) {
+				if (new_state == -1)
 					break;
-				} else if (automaton.isAcceptDelimited(new_state, delimiter)) {
-					if (match_start == -1) {
-						match_start = begin;
+				p = new_state;
+
+				if (validEnds == null || validEnds[i + 1]) {
+					final int id_state = automaton.step(new_state, delimiter);
+					if (id_state != -1) {
+						runState = new_state;
+						setMatch(begin, i + 1, id_state);
+						return true;
 					}
-					match_end = i;
-					match_ids = getIDs(automaton.step(new_state,delimiter));
-					setMatch(match_start, match_end + 1, match_ids);
-					return true;
 				}
-				p = new_state;
 			}
-			begin += 1;
-		}
-		
-		if (match_start != -1) {
-			setMatch(match_start, match_end, match_ids);
-			return true;
-		} else {
-			setMatch(-2, -2, null);
-			return false;
+
+			begin = nextStart(begin + 1);
+			i = begin;
+			p = initial;
 		}
+
+		setMatch(-2, -2, -1);
+		return false;
+	}
+
+	/**
+	 * @return the first offset, at or after begin, at which matches may start (see setBoundaries())
+	 */
+	private int nextStart(int begin) {
+		if (validStarts != null)
+			while (begin < chars.length() && !validStarts[begin])
+				begin++;
+		return begin;
 	}
 
 	/**
@@ -220,15 +211,15 @@ public class CustomAutomatonMatcher implements MatchResult {
 		}
 	}
 
-	private void setMatch(final int matchStart, final int matchEnd, final ArrayList<String> matchIDs) throws IllegalArgumentException {
+	private void setMatch(final int matchStart, final int matchEnd, final int matchIDState) throws IllegalArgumentException {
 		if (matchStart > matchEnd) {
 			throw new IllegalArgumentException("Start must be less than or equal to end: " + matchStart + ", " + matchEnd);
 		}
-		if (matchIDs != null && matchIDs.size() == 0)
+		if (matchIDState != -1 && automaton.getNumIDIndices(matchIDState) == 0)
 			throw new IllegalStateException("matchIDs.size() == 0");
 		this.matchStart = matchStart;
 		this.matchEnd = matchEnd;
-		this.matchIDs = matchIDs;
+		this.matchIDState = matchIDState;
 	}
 
 	private void setMatch(final int matchStart, final int matchEnd) throws IllegalArgumentException {
@@ -378,7 +369,27 @@ public class CustomAutomatonMatcher implements MatchResult {
 	 * @return the IDs of the matches from the last call to find()
 	 */
 	public ArrayList<String> getMatchIDs() {
+		int n = getNumMatchIDs();
+		ArrayList<String> res = new ArrayList<String>(n);
+		for (int k = 0; k < n; k++)
+			res.add(automaton.getID(getMatchIDIndex(k)));
+		return res;
+	}
+
+	/**
+	 * @return the number of IDs of the last match from findWithDelimitedID()
+	 */
+	public int getNumMatchIDs() {
+		matchGood();
+		return automaton.getNumIDIndices(matchIDState);
+	}
+
+	/**
+	 * @return the k:th ID of the last match from findWithDelimitedID(), as an index into the IDs of the automaton (see
+	 * IDAutomaton.getID())
+	 */
+	public int getMatchIDIndex(int k) {
 		matchGood();
-		return matchIDs;
+		return automaton.getIDIndex(matchIDState, k);
 	}
 }
@@ -37,15 +37,23 @@ import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Finite-state automaton with fast run operation. This is a modified version of RunAutomaton from the BRICS automaton package.
  * Modified such that regular expressions can be assigned IDs that are used to differentiate joined automatons.
  * @author Anders M&oslash;ller &lt;<a href="mailto:amoeller@brics.dk">amoeller@brics.dk</a>&gt, Martin Gerner;
  */
-public class CustomRunAutomaton extends RunAutomaton implements Serializable {
+public class CustomRunAutomaton extends RunAutomaton implements Serializable, IDAutomaton {
 	private static final long serialVersionUID = -6099832471357070405L;
 
+	/**
+	 * The distinct IDs of the automaton, and for each state reached through the delimiter the indices (into ids) of the IDs
+	 * that follow it (null for other states). They are computed once, when first requested, rather than by walking the
+	 * ID part of the automaton for each match, and are not serialized (so that stored automatons remain readable).
+	 */
+	private transient String[] ids;
+	private transient volatile int[][] stateIDs;
 
 	public ArrayList<Character> getValidChars(int state){
 		ArrayList<Character> list = new ArrayList<Character>();
@@ -59,6 +67,97 @@ public class CustomRunAutomaton extends RunAutomaton implements Serializable {
 		return list;
 	}
 
+	/**
+	 * @return the distinct IDs of the automaton, which the indices returned by getIDIndices() refer to
+	 */
+	public String[] getIDs(){
+		if (stateIDs == null)
+			computeIDs();
+		return ids;
+	}
+
+	/**
+	 * @param state a state reached through the delimiter
+	 * @return the indices (into getIDs()) of the IDs following state, or null if state is not reached through the delimiter
+	 */
+	public int[] getIDIndices(int state){
+		int[][] res = stateIDs;
+		if (res == null){
+			computeIDs();
+			res = stateIDs;
+		}
+		return res[state];
+	}
+
+	public int getNumIDs(){
+		return getIDs().length;
+	}
+
+	public String getID(int index){
+		return getIDs()[index];
+	}
+
+	public int getNumIDIndices(int state){
+		int[] indices = getIDIndices(state);
+		return indices != null ? indices.length : 0;
+	}
+
+	public int getIDIndex(int state, int k){
+		return getIDIndices(state)[k];
+	}
+
+	private synchronized void computeIDs(){
+		if (stateIDs != null)
+			return;
+
+		HashMap<String,Integer> indices = new HashMap<String,Integer>();
+		ArrayList<String> pool = new ArrayList<String>();
+		int[][] res = new int[getSize()][];
+
+		for (int s = 0; s < getSize(); s++){
+			int t = step(s, delimiter);
+			if (t == -1 || res[t] != null)
+				continue;
+
+			ArrayList<String> list = collectIDs(t);
+			res[t] = new int[list.size()];
+
+			for (int i = 0; i < list.size(); i++){
+				Integer index = indices.get(list.get(i));
+				if (index == null){
+					index = pool.size();
+					pool.add(list.get(i));
+					indices.put(list.get(i), index);
+				}
+				res[t][i] = index;
+			}
+		}
+
+		ids = pool.toArray(new String[pool.size()]);
+		stateIDs = res;
+	}
+
+	/**
+	 * @return the IDs that can be read from state, in the order of the transitions leading to them
+	 */
+	private ArrayList<String> collectIDs(int state){
+		ArrayList<String> res = new ArrayList<String>();
+
+		for (char c : getValidChars(state)){
+			int step = step(state,c);
+
+			if (step != -1 && step != state){
+				if (accept[step])
+					res.add(""+c);
+
+				for (String id : collectIDs(step))
+					res.add(c + id);
+			}
+		}
+
+		return res;
+	}
+
 	/**
 	 * Retrieves a serialized <code>RunAutomaton</code> located by a URL.
 	 * @param url URL of serialized automaton
@@ -0,0 +1,57 @@
+package dk.brics.automaton;
+
+/**
+ * A deterministic automaton whose regular expressions have been assigned IDs (separated from the regular expressions by a
+ * delimiter, see CustomRunAutomaton.delimiter), as scanned by CustomAutomatonMatcher. Implemented by CustomRunAutomaton,
+ * which is held on the heap, and by MappedRunAutomaton, which is read in place from a memory-mapped file.
+ * @author Martin
+ */
+public interface IDAutomaton {
+	/**
+	 * @return the number of states of the automaton
+	 */
+	public int getSize();
+
+	public int getInitialState();
+
+	/**
+	 * @return the state reached from state on c, or -1 if none
+	 */
+	public int step(int state, char c);
+
+	public boolean isAccept(int state);
+
+	/**
+	 * @return whether a given state is an accept state, if delimiter is used to separate regular expressions and IDs
+	 */
+	public boolean isAcceptDelimited(int state, char delimiter);
+
+	/**
+	 * @return the number of distinct IDs of the automaton, which the indices returned by getIDIndex() refer to
+	 */
+	public int getNumIDs();
+
+	/**
+	 * @return the ID with a given index (see getIDIndex())
+	 */
+	public String getID(int index);
+
+	/**
+	 * @param state a state reached through the delimiter
+	 * @return the number of IDs following state, or 0 if state is not reached through the delimiter
+	 */
+	public int getNumIDIndices(int state);
+
+	/**
+	 * @param state a state reached through the delimiter
+	 * @return the index (see getID()) of the k:th ID following state
+	 */
+	public int getIDIndex(int state, int k);
+
+	/**
+	 * Creates a new automaton matcher for the given input.
+	 * @param s the CharSequence to search
+	 * @return A new automaton matcher for the given input
+	 */
+	public CustomAutomatonMatcher newCustomMatcher(CharSequence s);
+}
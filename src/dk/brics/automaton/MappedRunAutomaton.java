@@ -0,0 +1,240 @@
+package dk.brics.automaton;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Automaton that is read in place from a buffer (typically a section of a memory-mapped file, see
+ * AutomatonMatcher.loadMatcher()), rather than deserialized onto the heap. The transitions, accept states and ID tables
+ * stay in the buffer, so that loading is fast and the pages of a mapped file are shared by all processes using it.
+ * Only the character intervals and a table from characters to intervals are copied onto the heap; IDs are decoded from the
+ * buffer when requested (see getID()).
+ *
+ * Sections are written by write(), and are laid out as big-endian ints (with chars padded to a multiple of four bytes):
+ * <pre>
+ * size, initial state, number of points, number of IDs, number of ID indices, number of ID characters
+ * points (chars), transitions (size * number of points, -1 if none), accept states (one bit per state),
+ * ID index offsets (size + 1), ID indices, ID character offsets (number of IDs + 1), ID characters (chars)
+ * </pre>
+ * @author Martin
+ */
+public class MappedRunAutomaton implements IDAutomaton {
+	private static final int HEADER_LENGTH = 24;
+
+	private int size;
+	private int initial;
+	private char[] points;
+
+	/**
+	 * the interval (index into points) of each character (there are at most 65536 intervals, so they fit in chars)
+	 */
+	private char[] classmap;
+
+	private IntBuffer transitions;
+	private IntBuffer accept;
+
+	/**
+	 * the IDs of state s are idIndices[idOffsets[s]] to idIndices[idOffsets[s+1]-1]
+	 */
+	private IntBuffer idOffsets;
+	private IntBuffer idIndices;
+
+	/**
+	 * the characters of ID i are idChars[idCharOffsets[i]] to idChars[idCharOffsets[i+1]-1]
+	 */
+	private int numIDs;
+	private IntBuffer idCharOffsets;
+	private CharBuffer idChars;
+
+	/**
+	 * @param section the buffer holding the automaton, as written by write() (from position 0 of the buffer)
+	 */
+	public MappedRunAutomaton(ByteBuffer section){
+		ByteBuffer b = section.duplicate();
+		this.size = b.getInt(0);
+		this.initial = b.getInt(4);
+		int numPoints = b.getInt(8);
+		this.numIDs = b.getInt(12);
+		int numIDIndices = b.getInt(16);
+		int numIDChars = b.getInt(20);
+
+		int p = HEADER_LENGTH;
+
+		this.points = new char[numPoints];
+		slice(b, p).asCharBuffer().get(points);
+		p += pad(numPoints * 2);
+
+		this.transitions = slice(b, p).asIntBuffer();
+		transitions.limit(size * numPoints);
+		p += size * numPoints * 4;
+
+		this.accept = slice(b, p).asIntBuffer();
+		accept.limit((size + 31) / 32);
+		p += (size + 31) / 32 * 4;
+
+		this.idOffsets = slice(b, p).asIntBuffer();
+		idOffsets.limit(size + 1);
+		p += (size + 1) * 4;
+
+		this.idIndices = slice(b, p).asIntBuffer();
+		idIndices.limit(numIDIndices);
+		p += numIDIndices * 4;
+
+		this.idCharOffsets = slice(b, p).asIntBuffer();
+		idCharOffsets.limit(numIDs + 1);
+		p += (numIDs + 1) * 4;
+
+		this.idChars = slice(b, p).asCharBuffer();
+		idChars.limit(numIDChars);
+
+		this.classmap = new char[Character.MAX_VALUE + 1];
+		int i = 0;
+		for (int c = 0; c <= Character.MAX_VALUE; c++){
+			if (i + 1 < points.length && c == points[i + 1])
+				i++;
+			classmap[c] = (char) i;
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer b, int position){
+		b.position(position);
+		return b.slice();
+	}
+
+	/**
+	 * @return length rounded up to a multiple of four
+	 */
+	private static int pad(int length){
+		return (length + 3) & ~3;
+	}
+
+	/**
+	 * @return the number of bytes that write() will write for the automaton
+	 */
+	public static long getLength(CustomRunAutomaton a){
+		String[] ids = a.getIDs();
+		long numIDIndices = 0;
+		long numIDChars = 0;
+		for (int s = 0; s < a.size; s++)
+			if (a.getIDIndices(s) != null)
+				numIDIndices += a.getIDIndices(s).length;
+		for (String id : ids)
+			numIDChars += id.length();
+
+		return HEADER_LENGTH + pad(a.points.length * 2) + (long) a.size * a.points.length * 4 + (a.size + 31) / 32 * 4 +
+			(a.size + 1) * 4L + numIDIndices * 4 + (ids.length + 1) * 4L + pad((int) numIDChars * 2);
+	}
+
+	/**
+	 * Writes an automaton in the format read by the constructor
+	 */
+	public static void write(CustomRunAutomaton a, DataOutputStream out) throws IOException {
+		String[] ids = a.getIDs();
+
+		int numIDIndices = 0;
+		int numIDChars = 0;
+		for (int s = 0; s < a.size; s++)
+			if (a.getIDIndices(s) != null)
+				numIDIndices += a.getIDIndices(s).length;
+		for (String id : ids)
+			numIDChars += id.length();
+
+		out.writeInt(a.size);
+		out.writeInt(a.initial);
+		out.writeInt(a.points.length);
+		out.writeInt(ids.length);
+		out.writeInt(numIDIndices);
+		out.writeInt(numIDChars);
+
+		for (char c : a.points)
+			out.writeChar(c);
+		if (a.points.length % 2 == 1)
+			out.writeChar(0);
+
+		for (int t : a.transitions)
+			out.writeInt(t);
+
+		for (int w = 0; w < (a.size + 31) / 32; w++){
+			int bits = 0;
+			for (int s = w * 32; s < Math.min(a.size, w * 32 + 32); s++)
+				if (a.accept[s])
+					bits |= 1 << (s & 31);
+			out.writeInt(bits);
+		}
+
+		int offset = 0;
+		for (int s = 0; s < a.size; s++){
+			out.writeInt(offset);
+			if (a.getIDIndices(s) != null)
+				offset += a.getIDIndices(s).length;
+		}
+		out.writeInt(offset);
+
+		for (int s = 0; s < a.size; s++)
+			if (a.getIDIndices(s) != null)
+				for (int index : a.getIDIndices(s))
+					out.writeInt(index);
+
+		offset = 0;
+		for (String id : ids){
+			out.writeInt(offset);
+			offset += id.length();
+		}
+		out.writeInt(offset);
+
+		for (String id : ids)
+			out.writeChars(id);
+		if (numIDChars % 2 == 1)
+			out.writeChar(0);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getInitialState() {
+		return initial;
+	}
+
+	public int step(int state, char c) {
+		return transitions.get(state * points.length + classmap[c]);
+	}
+
+	public boolean isAccept(int state) {
+		return (accept.get(state >>> 5) & (1 << (state & 31))) != 0;
+	}
+
+	public boolean isAcceptDelimited(int state, char delimiter) {
+		return step(state, delimiter) != -1;
+	}
+
+	public int getNumIDs() {
+		return numIDs;
+	}
+
+	/**
+	 * Decodes an ID from the buffer (using absolute gets only, so that the automaton can be used by several threads)
+	 */
+	public String getID(int index) {
+		int start = idCharOffsets.get(index);
+		char[] id = new char[idCharOffsets.get(index + 1) - start];
+		for (int i = 0; i < id.length; i++)
+			id[i] = idChars.get(start + i);
+		return new String(id);
+	}
+
+	public int getNumIDIndices(int state) {
+		return idOffsets.get(state + 1) - idOffsets.get(state);
+	}
+
+	public int getIDIndex(int state, int k) {
+		return idIndices.get(idOffsets.get(state) + k);
+	}
+
+	public CustomAutomatonMatcher newCustomMatcher(CharSequence s) {
+		return new CustomAutomatonMatcher(s, this);
+	}
+}
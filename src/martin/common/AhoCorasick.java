@@ -0,0 +1,165 @@
+package martin.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton, for finding all occurrences of a set of strings in a text in a single pass over the text.
+ * Best suited for relatively small sets of patterns (e.g. the acronyms of a document), as transitions are stored as
+ * a full table over the characters that occur in the patterns.
+ * @author Martin
+ */
+public class AhoCorasick {
+	private String[] patterns;
+
+	/**
+	 * columns of the transition table for ASCII characters (-1 for characters not occurring in any pattern), and for other characters
+	 */
+	private int[] asciiColumns = new int[128];
+	private Map<Character,Integer> otherColumns = new HashMap<Character,Integer>();
+	private int numColumns = 0;
+
+	/**
+	 * the transitions of each state, by column (with failures already resolved, so that this is a DFA)
+	 */
+	private int[][] transitions;
+
+	/**
+	 * the patterns ending at each state, including those reached through failure links (null if none)
+	 */
+	private int[][] outputs;
+
+	public AhoCorasick(String[] patterns){
+		this.patterns = patterns;
+
+		for (int i = 0; i < asciiColumns.length; i++)
+			asciiColumns[i] = -1;
+
+		for (String p : patterns)
+			for (int i = 0; i < p.length(); i++)
+				if (getColumn(p.charAt(i)) == -1)
+					addColumn(p.charAt(i));
+
+		build();
+	}
+
+	private int getColumn(char c){
+		if (c < 128)
+			return asciiColumns[c];
+		Integer col = otherColumns.get(c);
+		return col != null ? col : -1;
+	}
+
+	private void addColumn(char c){
+		if (c < 128)
+			asciiColumns[c] = numColumns++;
+		else
+			otherColumns.put(c, numColumns++);
+	}
+
+	private void build(){
+		//trie
+		List<int[]> trie = new ArrayList<int[]>();
+		List<List<Integer>> ends = new ArrayList<List<Integer>>();
+		trie.add(newState());
+		ends.add(new ArrayList<Integer>());
+
+		for (int p = 0; p < patterns.length; p++){
+			int state = 0;
+			for (int i = 0; i < patterns[p].length(); i++){
+				int col = getColumn(patterns[p].charAt(i));
+				if (trie.get(state)[col] == -1){
+					trie.get(state)[col] = trie.size();
+					trie.add(newState());
+					ends.add(new ArrayList<Integer>());
+				}
+				state = trie.get(state)[col];
+			}
+			ends.get(state).add(p);
+		}
+
+		int n = trie.size();
+		this.transitions = trie.toArray(new int[n][]);
+		this.outputs = new int[n][];
+
+		//failure links, computed breadth-first so that the transitions of the failure state are complete when needed
+		int[] fail = new int[n];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+
+		for (int col = 0; col < numColumns; col++){
+			if (transitions[0][col] == -1){
+				transitions[0][col] = 0;
+			} else {
+				fail[transitions[0][col]] = 0;
+				queue.add(transitions[0][col]);
+			}
+		}
+
+		setOutputs(0, ends.get(0), null);
+
+		while (!queue.isEmpty()){
+			int state = queue.removeFirst();
+			setOutputs(state, ends.get(state), outputs[fail[state]]);
+
+			for (int col = 0; col < numColumns; col++){
+				int next = transitions[state][col];
+				if (next == -1){
+					transitions[state][col] = transitions[fail[state]][col];
+				} else {
+					fail[next] = transitions[fail[state]][col];
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+	private int[] newState(){
+		int[] state = new int[numColumns];
+		for (int i = 0; i < numColumns; i++)
+			state[i] = -1;
+		return state;
+	}
+
+	private void setOutputs(int state, List<Integer> own, int[] inherited){
+		int size = own.size() + (inherited != null ? inherited.length : 0);
+		if (size == 0)
+			return;
+
+		int[] res = new int[size];
+		int i = 0;
+		for (int p : own)
+			res[i++] = p;
+		if (inherited != null)
+			for (int p : inherited)
+				res[i++] = p;
+
+		outputs[state] = res;
+	}
+
+	/**
+	 * Finds all (possibly overlapping) occurrences of the patterns in the text.
+	 * @return the occurrences, as pairs of (pattern index, start coordinate), ordered by end coordinate
+	 */
+	public List<Pair<Integer>> find(String text){
+		List<Pair<Integer>> res = new ArrayList<Pair<Integer>>();
+		int state = 0;
+
+		for (int i = 0; i < text.length(); i++){
+			int col = getColumn(text.charAt(i));
+			state = col != -1 ? transitions[state][col] : 0;
+
+			if (outputs[state] != null)
+				for (int p : outputs[state])
+					res.add(new Pair<Integer>(p, i + 1 - patterns[p].length()));
+		}
+
+		return res;
+	}
+
+	public String[] getPatterns(){
+		return patterns;
+	}
+}
@@ -0,0 +1,44 @@
+package martin.common;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Class for iterating over the elements of a sequence of lists, as if they were a single sequence.
+ * Useful for unpacking the results of problems that have been computed in batches.
+ * @author Martin
+ *
+ * @param <E> the class of the list elements
+ */
+public class FlatteningIterator<E> implements Iterator<E>, Iterable<E> {
+	private Iterator<? extends List<E>> lists;
+	private Iterator<E> current = null;
+
+	public FlatteningIterator(Iterator<? extends List<E>> lists){
+		this.lists = lists;
+	}
+
+	public boolean hasNext() {
+		while ((current == null || !current.hasNext()) && lists.hasNext()){
+			List<E> list = lists.next();
+			current = list != null ? list.iterator() : null;
+		}
+
+		return current != null && current.hasNext();
+	}
+
+	public E next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return current.next();
+	}
+
+	public void remove() {
+		throw new IllegalStateException("Not implemented.");
+	}
+
+	public Iterator<E> iterator() {
+		return this;
+	}
+}
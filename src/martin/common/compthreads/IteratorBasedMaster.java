@@ -1,51 +1,107 @@
 package martin.common.compthreads;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import martin.common.ArrayIterator;
+import martin.common.Sizeable;
 
 /**
  * Class for facilitating parallelized computations. 
  * This class provides functionality when the "problem" instances are given by an iterator, while the ArrayBasedMaster class is better suited when the problems are stored in an array.
  * Solutions can be retrieved as they complete through an iterator.
+ * Problems are computed by a fixed pool of numThreads worker threads that are reused between problems, rather than by one new thread per problem.
+ * Solutions are reordered through a ring buffer indexed by job number, so that no more than a fixed window of solutions (computed or in progress) are held at any time.
+ * If the master is created as unordered, solutions are instead returned in the order that they complete.
+ * Optionally, the estimated size of computed solutions that have not yet been retrieved can be limited with setMaxBufferedBytes().
+ * Solutions retrieved with next(false) are moved out of the window (so that they do not hold back the computation), and can be returned again after reset().
  * Usage example: new Thread(new ArrayBasedMaster(problems, 4)).start(); Object[] solutions = master.getSolutions();
  * 
  * @author Martin
  * @param <E> The class representing solutions to computational problems
  */
 public class IteratorBasedMaster<E> extends Master<E> implements Runnable, Iterator<E>, Iterable<E>{
+	/**
+	 * the reorder window size used when no maxStorageLength is given, per thread
+	 */
+	private static final int DEFAULT_WINDOW_PER_THREAD = 64;
+
+	/**
+	 * stored in the window in place of null solutions, since a null slot means "not yet computed"
+	 */
+	private static final Object NULL_SOLUTION = new Object();
+
 	private Iterator<Problem<E>> problemIterator;
 
-	private Map<Integer,E> solutions;
-	private Map<Integer,Semaphore> solutionSemaphores;
+	private AtomicReferenceArray<Object> window;
+	private int windowSize;
+
+	private boolean ordered;
+	private ConcurrentLinkedQueue<Object> completed;
 
 	private Semaphore threadsem;
-	private Semaphore solutionsem = new Semaphore(1,true);
-	private Semaphore addedsem = new Semaphore(0,true);
+	private Semaphore windowsem;
+
+	private volatile int numSubmitted = 0;
+	private volatile boolean allSubmitted = false;
+	private volatile Thread waitingConsumer = null;
+	private volatile Thread waitingProducer = null;
 	private int nextJobToRelease = 0;
 
-	private Semaphore storageLimitSem;
+	/**
+	 * the number of jobs whose solutions have been taken from the window, and the ones among them that were kept by next(false)
+	 */
+	private int nextJobFromWindow = 0;
+	private Map<Integer,Object> kept = new HashMap<Integer,Object>();
+
+	private Long maxBufferedBytes = null;
+	private volatile boolean releaseOnRetrieval = true;
+	private AtomicLong bufferedBytes = new AtomicLong();
+	private AtomicInteger numBuffered = new AtomicInteger();
+
+	private ThreadPoolExecutor executor;
 
 	/**
 	 * Creates a new IteratorBasedMaster.
 	 * @param problemIterator specifies an iterator which gives the problems that are to be computed.
 	 * @param numThreads specifies the maximum number of problems that should be computed concurrently
-	 * @param maxStorageLength specifies the maximum number of result objects that can be help in buffer memory
+	 * @param maxStorageLength specifies the maximum number of result objects that can be help in buffer memory (if null, 64 * numThreads are allowed)
 	 */
 	public IteratorBasedMaster(Iterator<Problem<E>> problemIterator, int numThreads, Integer maxStorageLength){
+		this(problemIterator, numThreads, maxStorageLength, true);
+	}
+
+	/**
+	 * Creates a new IteratorBasedMaster.
+	 * @param problemIterator specifies an iterator which gives the problems that are to be computed.
+	 * @param numThreads specifies the maximum number of problems that should be computed concurrently
+	 * @param maxStorageLength specifies the maximum number of result objects that can be help in buffer memory (if null, 64 * numThreads are allowed)
+	 * @param ordered whether solutions should be returned in the same order as the problems (if false, they are returned as soon as they complete, so that a slow problem does not hold back the ones after it)
+	 */
+	public IteratorBasedMaster(Iterator<Problem<E>> problemIterator, int numThreads, Integer maxStorageLength, boolean ordered){
 		this.problemIterator = problemIterator;
+		this.ordered = ordered;
+
+		//a fixed pool of long-lived worker threads, fed through a bounded queue. Since threadsem never lets
+		//more than numThreads problems be in flight at the same time, the queue can never overflow.
+		this.executor = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(numThreads));
 
-		this.solutions = Collections.synchronizedMap(new HashMap<Integer,E>());
-		this.solutionSemaphores = Collections.synchronizedMap(new HashMap<Integer,Semaphore>());
+		this.windowSize = maxStorageLength != null ? maxStorageLength : DEFAULT_WINDOW_PER_THREAD * numThreads;
+		if (ordered)
+			this.window = new AtomicReferenceArray<Object>(windowSize);
+		else
+			this.completed = new ConcurrentLinkedQueue<Object>();
 
-		threadsem = new Semaphore(numThreads,true);
-		this.storageLimitSem = maxStorageLength != null ? new Semaphore(maxStorageLength,true) : null;
+		threadsem = new Semaphore(numThreads);
+		windowsem = new Semaphore(windowSize);
 	}
 
 	/**
@@ -65,6 +121,52 @@ public class IteratorBasedMaster<E> extends Master<E> implements Runnable, Itera
 		this(collection.iterator(), numThreads, null);
 	}
 
+	/**
+	 * Sets a budget for the total size of computed solutions that have not yet been retrieved through next(). While the budget
+	 * is exceeded, no new problems are started. Solutions are sized through Sizeable (collections by the sum of their Sizeable
+	 * elements); other solutions are counted as 0 bytes. Should be called before the thread is started.
+	 * @param maxBufferedBytes the budget, in bytes (null for no budget, in which case only the window size applies)
+	 */
+	public void setMaxBufferedBytes(Long maxBufferedBytes){
+		this.maxBufferedBytes = maxBufferedBytes;
+	}
+
+	/**
+	 * Sets whether the sizes of solutions leave the byte budget (see setMaxBufferedBytes()) as soon as they are retrieved through
+	 * next(), which is the default, or only once they are passed to releaseBytes() (e.g. when a later stage is done with them).
+	 * Should be called before any solutions are retrieved.
+	 */
+	public void setReleaseOnRetrieval(boolean releaseOnRetrieval){
+		this.releaseOnRetrieval = releaseOnRetrieval;
+	}
+
+	/**
+	 * Removes bytes from the estimated size of buffered solutions, for masters that do not release solutions as they are retrieved
+	 * (see setReleaseOnRetrieval()). Can be called by any thread.
+	 */
+	public void releaseBytes(long bytes){
+		bufferedBytes.addAndGet(-bytes);
+
+		Thread producer = waitingProducer;
+		if (producer != null)
+			LockSupport.unpark(producer);
+	}
+
+	/**
+	 * @return the estimated size, in bytes, of the computed solutions that have not yet been retrieved (or, if
+	 * setReleaseOnRetrieval(false) was called, that have not yet been passed to releaseBytes())
+	 */
+	public long getBufferedBytes(){
+		return bufferedBytes.get();
+	}
+
+	/**
+	 * @return the number of computed solutions that have not yet been retrieved
+	 */
+	public int getNumBuffered(){
+		return numBuffered.get();
+	}
+
 	//@Override
 	/**
 	 * Runs the thread. This should not be called by the user - call startThread() instead.
@@ -74,60 +176,122 @@ public class IteratorBasedMaster<E> extends Master<E> implements Runnable, Itera
 
 		while (problemIterator.hasNext()){
 			try {
+				waitForBudget();
+
 				threadsem.acquire();
-				
-				if (storageLimitSem != null)
-					storageLimitSem.acquire();
-				
-				solutionSemaphores.put(nextJob, new Semaphore(0,true));
 
-				Worker<E> w = new Worker<E>(problemIterator.next(), this, nextJob++);
+				//wait until there is space for this job in the window (i.e. until the consumer has released
+				//the slot of the job, or, if unordered, any solution)
+				windowsem.acquire();
 
-				new Thread(w).start();
+				//announce the job before taking it from the iterator, so that hasNext() never sees
+				//an exhausted iterator without also seeing the job
+				numSubmitted = nextJob + 1;
 
-				addedsem.release();
+				Worker<E> w = new Worker<E>(problemIterator.next(), this, nextJob++);
+
+				executor.execute(w);
 			} catch (Exception e){
 				System.err.println(e);
 				e.printStackTrace();
 				System.exit(-1);
 			}
 		}
+
+		allSubmitted = true;
+		wakeConsumer();
+
+		//lets the pool threads finish the remaining problems and then exit
+		executor.shutdown();
 	}
 
-	void report(E solution, int id){
-		try {
-			solutionsem.acquire();
-			solutions.put(id,solution);
-			solutionsem.release();
-		} catch (InterruptedException e) {
-			System.err.println(e);
-			e.printStackTrace();
-			System.exit(-1);			
+	/**
+	 * Blocks while the solutions waiting to be retrieved exceed the byte budget (if any).
+	 */
+	private void waitForBudget(){
+		if (maxBufferedBytes == null)
+			return;
+
+		while (bufferedBytes.get() > maxBufferedBytes){
+			waitingProducer = Thread.currentThread();
+			if (bufferedBytes.get() > maxBufferedBytes)
+				LockSupport.park(this);
+			waitingProducer = null;
 		}
+	}
+
+	private static long sizeof(Object solution){
+		if (solution instanceof Sizeable)
+			return ((Sizeable) solution).sizeof();
+
+		long size = 0;
+		if (solution instanceof Collection)
+			for (Object o : (Collection<?>) solution)
+				if (o instanceof Sizeable)
+					size += ((Sizeable) o).sizeof();
+
+		return size;
+	}
+
+	/**
+	 * Called by the consumer as a solution is removed from storage
+	 */
+	private void released(Object solution){
+		numBuffered.decrementAndGet();
+
+		if (releaseOnRetrieval)
+			releaseBytes(sizeof(solution));
+	}
+
+	private void wakeConsumer(){
+		Thread consumer = waitingConsumer;
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	void report(E solution, int id){
+		Object o = solution != null ? solution : NULL_SOLUTION;
+
+		bufferedBytes.addAndGet(sizeof(solution));
+		numBuffered.incrementAndGet();
+
+		if (ordered)
+			window.set(id % windowSize, o);
+		else
+			completed.add(o);
+
+		wakeConsumer();
 
 		if (getReportProgress())
 			System.out.println("\tThread " + id + " finished.");
 
-		solutionSemaphores.get(id).release();
 		threadsem.release();
 	}
 
 	/**
-	 * @return whether all solutions (already computed or not) have already been returned by the next() function
+	 * If all submitted solutions have been returned, this method will block until either another problem has been taken from the problem
+	 * iterator and solved, or the problem iterator is exhausted. The problem iterator itself is only ever accessed by the master thread,
+	 * so that it can be a (non thread-safe) view of another master.
+	 * @return whether there are solutions (already computed or not) that have not yet been returned by the next() function
 	 */
 	public boolean hasNext() {
-		if (problemIterator.hasNext())
-			return true;
+		while (nextJobToRelease >= numSubmitted){
+			if (allSubmitted)
+				return nextJobToRelease < numSubmitted;
 
-		if (solutionSemaphores.containsKey(nextJobToRelease))
-			return true;
-		else 
-			return false;
+			//any job submitted after the re-check below will report after we have been published, and so will wake us
+			waitingConsumer = Thread.currentThread();
+			if (nextJobToRelease >= numSubmitted && !allSubmitted)
+				LockSupport.park(this);
+			waitingConsumer = null;
+		}
+
+		return true;
 	}
 
 	/**
 	 * If no computed solutions exist that have not already been returned, this method will block until the next problem finishes.
-	 * The problems are returned in the same order as they come in the problem iterator given to the constructor.
+	 * The problems are returned in the same order as they come in the problem iterator given to the constructor (unless the master is unordered).
 	 * @return the solution to the next problem in line to be returned.
 	 * @throws NoSuchElementException if called when hasNext() == false
 	 */
@@ -138,41 +302,83 @@ public class IteratorBasedMaster<E> extends Master<E> implements Runnable, Itera
 	/**
 	 * If no computed solutions exist that have not already been returned, this method will block until the next problem finishes.
 	 * The problems are returned in the same order as they come in the problem iterator given to the constructor.
-	 * @param remove whether to also delete the returned object from the underlying storage data structures
+	 * @param remove whether to also delete the returned object from storage (if not, it is kept outside the reorder window until it is returned again with remove set after reset()). Unordered masters always remove.
 	 * @return the solution to the next problem in line to be returned.
 	 * @throws NoSuchElementException if called when hasNext() == false
+	 * @throws IllegalStateException if, after reset(), the solution was not kept by an earlier next(false)
 	 */
+	@SuppressWarnings("unchecked")
 	public E next(boolean remove) {
 		if (!hasNext())
 			throw new NoSuchElementException();
 
-		E res = null;
+		if (!ordered)
+			return nextCompleted();
 
 		int job = nextJobToRelease++;
-		try {
-			addedsem.acquire();
-			solutionSemaphores.get(job).acquire();
-			res = solutions.get(job);
-
-			if (remove){
-				solutions.remove(job);
-				solutionSemaphores.remove(job);
-				if (storageLimitSem != null)
-					storageLimitSem.release();
-			} else {
-				solutionSemaphores.get(job).release();
-			}
-		} catch (InterruptedException e) {
-			System.err.println(e);
-			e.printStackTrace();
-			System.exit(-1);			
+
+		//returned before reset(), so only available if it was kept
+		if (job < nextJobFromWindow){
+			if (!kept.containsKey(job))
+				throw new IllegalStateException("The solution to problem " + job + " was removed by next() and cannot be returned again");
+
+			Object res = remove ? kept.remove(job) : kept.get(job);
+			return res != NULL_SOLUTION ? (E) res : null;
+		}
+
+		int slot = job % windowSize;
+		nextJobFromWindow++;
+
+		Object res = window.get(slot);
+
+		if (res == null){
+			//publish ourselves before re-checking the slot, so that the worker either sees us or we see its solution
+			waitingConsumer = Thread.currentThread();
+			while ((res = window.get(slot)) == null)
+				LockSupport.park(this);
+			waitingConsumer = null;
+		}
+
+		//the slot is always freed, as the window may need it for a later job
+		window.set(slot, null);
+		released(res);
+		windowsem.release();
+
+		if (!remove)
+			kept.put(job, res);
+
+		return res != NULL_SOLUTION ? (E) res : null;
+	}
+
+	/**
+	 * @return the next solution to complete, for unordered masters
+	 */
+	@SuppressWarnings("unchecked")
+	private E nextCompleted(){
+		nextJobToRelease++;
+
+		Object res = completed.poll();
+
+		if (res == null){
+			waitingConsumer = Thread.currentThread();
+			while ((res = completed.poll()) == null)
+				LockSupport.park(this);
+			waitingConsumer = null;
 		}
 
-		return res;
+		released(res);
+		windowsem.release();
+
+		return res != NULL_SOLUTION ? (E) res : null;
 	}
 
+	/**
+	 * Restarts iteration from the first solution. Only solutions that were retrieved with next(false) can be returned again, and only for ordered masters.
+	 * @throws IllegalStateException if the master is unordered
+	 */
 	public void reset(){
-		addedsem.release(nextJobToRelease);
+		if (!ordered)
+			throw new IllegalStateException("Unordered masters cannot be reset, as their solutions are always removed");
 		nextJobToRelease = 0;
 	}
 
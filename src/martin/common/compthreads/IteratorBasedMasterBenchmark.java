@@ -0,0 +1,102 @@
+package martin.common.compthreads;
+
+import java.util.Iterator;
+
+/**
+ * Measures the overhead of IteratorBasedMaster per problem, for an increasing number of threads. The problems are cheap
+ * (an optional busy loop of a given number of iterations), so that the time is dominated by handing problems to the worker
+ * threads and solutions back, in order, to the consumer. Solutions are checked to come back in the order of the problems.
+ * Usage: IteratorBasedMasterBenchmark [number of problems] [work per problem] [thread counts, comma-separated]
+ * @author Martin
+ */
+public class IteratorBasedMasterBenchmark {
+	private static class BusyProblem implements Problem<Integer> {
+		private int id;
+		private int work;
+
+		BusyProblem(int id, int work){
+			this.id = id;
+			this.work = work;
+		}
+
+		public Integer compute(){
+			int x = id;
+			for (int i = 0; i < work; i++)
+				x = x * 31 + i;
+			if (x == 42)
+				System.out.print("");
+			return id;
+		}
+	}
+
+	/**
+	 * Gives numProblems problems, creating them as they are requested (as e.g. document iterators do)
+	 */
+	private static class ProblemIterator implements Iterator<Problem<Integer>> {
+		private int next = 0;
+		private int numProblems;
+		private int work;
+
+		ProblemIterator(int numProblems, int work){
+			this.numProblems = numProblems;
+			this.work = work;
+		}
+
+		public boolean hasNext(){
+			return next < numProblems;
+		}
+
+		public Problem<Integer> next(){
+			return new BusyProblem(next++, work);
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * @return the time, in nanoseconds, taken to compute and retrieve all solutions
+	 */
+	private static long run(int numProblems, int work, int numThreads){
+		IteratorBasedMaster<Integer> master = new IteratorBasedMaster<Integer>(new ProblemIterator(numProblems, work), numThreads);
+
+		long start = System.nanoTime();
+		master.startThread();
+
+		int expected = 0;
+		while (master.hasNext()){
+			Integer solution = master.next();
+			if (solution != expected){
+				System.err.println("Solution " + solution + " returned in place of " + expected);
+				System.exit(-1);
+			}
+			expected++;
+		}
+
+		long time = System.nanoTime() - start;
+
+		if (expected != numProblems){
+			System.err.println("Only " + expected + " of " + numProblems + " solutions were returned");
+			System.exit(-1);
+		}
+
+		return time;
+	}
+
+	public static void main(String[] args){
+		int numProblems = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		int work = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		String[] threadCounts = (args.length > 2 ? args[2] : "1,2,4,8,16,32,64").split(",");
+
+		//warm-up, so that the first measurement is not dominated by class loading and compilation
+		run(Math.min(numProblems, 100000), work, 4);
+
+		System.out.println("threads\tms\tns/problem");
+		for (String t : threadCounts){
+			int numThreads = Integer.parseInt(t);
+			long time = run(numProblems, work, numThreads);
+			System.out.println(numThreads + "\t" + time / 1000000 + "\t" + time / numProblems);
+		}
+	}
+}
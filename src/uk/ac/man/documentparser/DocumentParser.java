@@ -12,18 +12,21 @@ import java.util.logging.Logger;
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.documentparser.input.BMCFactory;
 import uk.ac.man.documentparser.input.BMCXMLFactory;
+import uk.ac.man.documentparser.input.ConcurrentParser;
 import uk.ac.man.documentparser.input.DatabaseIterator;
 import uk.ac.man.documentparser.input.DatabaseIterator2;
 import uk.ac.man.documentparser.input.Directory;
 import uk.ac.man.documentparser.input.DocumentBuffer;
 import uk.ac.man.documentparser.input.DocumentIterator;
 import uk.ac.man.documentparser.input.InputFactory;
+import uk.ac.man.documentparser.input.MedlineIndex;
 import uk.ac.man.documentparser.input.MedlineIndexFactory;
 import uk.ac.man.documentparser.input.MedlinePMCIndexFactory;
 import uk.ac.man.documentparser.input.OTMI;
 import uk.ac.man.documentparser.input.OTMIFactory;
 import uk.ac.man.documentparser.input.PMCAbstract;
 import uk.ac.man.documentparser.input.PMCFactory;
+import uk.ac.man.documentparser.input.PMCIndex;
 import uk.ac.man.documentparser.input.PMCIndexFactory;
 import uk.ac.man.documentparser.input.TextFile;
 import uk.ac.man.documentparser.input.TextFileFactory;
@@ -215,6 +218,9 @@ public class DocumentParser {
 		DocumentIterator documents = null;
 		String restrictPostfix = ap.get("restrictPostfix");
 
+		//if larger than 1, XML documents are parsed concurrently for the input types that support it (MEDLINE and PMC indices, directories)
+		int parseThreads = ap.getInt("parseThreads", 1);
+
 		if (ap.containsKey("pmcAbs")){
 			//not really used
 			File medlineBaseDir = ap.getFile("medlineBaseDir");
@@ -231,7 +237,10 @@ public class DocumentParser {
 			File medlineBaseDir = ap.getFile("medlineBaseDir");
 			File indexFile = ap.getFile("medlineIndex");
 
-			documents = new MedlineIndexFactory(medlineBaseDir,null).parse(indexFile);
+			if (parseThreads > 1)
+				documents = new ConcurrentParser(new MedlineIndex(medlineBaseDir,indexFile).getParseProblems(), parseThreads);
+			else
+				documents = new MedlineIndexFactory(medlineBaseDir,null).parse(indexFile);
 		} else if (ap.containsKey("medlinePMCIndex")){
 			//combines a PMC and MEDLINE repository, returning documents
 			//with data from both
@@ -246,32 +255,35 @@ public class DocumentParser {
 			File pmcBaseDir = ap.getFile("pmcBaseDir");
 			File indexFile = ap.getFile("pmcIndex");
 
-			documents = new PMCIndexFactory(pmcBaseDir,dtds).parse(indexFile);
+			if (parseThreads > 1)
+				documents = new ConcurrentParser(new PMCIndex(pmcBaseDir,indexFile,dtds).getParseProblems(), parseThreads);
+			else
+				documents = new PMCIndexFactory(pmcBaseDir,dtds).parse(indexFile);
 		} else if (ap.containsKey("pmcDir")){
 			//Directory containing PMC .xml files
 			InputFactory pmcFactory = new PMCFactory(dtds);
-			documents = new Directory(ap.getFile("pmcDir"),pmcFactory,".xml", ap.containsKey("recursive"));
+			documents = getDirectory(ap.getFile("pmcDir"),pmcFactory,".xml", ap.containsKey("recursive"), parseThreads);
 		} else if (ap.containsKey("OTMI")){
 			//OTMI XML file
 			documents = new OTMI(ap.getFile("OTMI"));
 		} else if (ap.containsKey("OTMIDir")){
 			//Directory containing OTMI XML files
-			documents = new Directory(ap.getFile("OTMIDir"),new OTMIFactory(),".otmi", ap.containsKey("recursive"));
+			documents = getDirectory(ap.getFile("OTMIDir"),new OTMIFactory(),".otmi", ap.containsKey("recursive"), parseThreads);
 		} else if (ap.containsKey("text")){
 			//plain text-file
 			return new TextFile(ap.getFiles("text"));
 		} else if (ap.containsKey("textDir")){
 			//directory containing plain text files
-			documents = new Directory(ap.getFile("textDir"),new TextFileFactory(),".txt",ap.containsKey("recursive"));
+			documents = getDirectory(ap.getFile("textDir"),new TextFileFactory(),".txt",ap.containsKey("recursive"), parseThreads);
 		} else if (ap.containsKey("bmcxml")){
 			//BMC XML file
 			documents = new BMCXMLFactory().parse(ap.getFile("bmcxml"));
 		} else if (ap.containsKey("bmcxmlDir")){
 			//Directory containing BMC XML files
-			documents = new Directory(ap.getFile("bmcxmlDir"),new BMCXMLFactory(),".xml",ap.containsKey("recursive"));
+			documents = getDirectory(ap.getFile("bmcxmlDir"),new BMCXMLFactory(),".xml",ap.containsKey("recursive"), parseThreads);
 		} else if (ap.containsKey("bmcDir")){
 			//Directory containing BMC XML files, alternative parsing
-			documents = new Directory(ap.getFile("bmcDir"),new BMCFactory(dtds),".xml",ap.containsKey("recursive"));
+			documents = getDirectory(ap.getFile("bmcDir"),new BMCFactory(dtds),".xml",ap.containsKey("recursive"), parseThreads);
 		} else if (ap.containsKey("databaseDocs")){
 			//Reads documents from a MySQL database
 			Connection conn = martin.common.SQL.connectMySQL(ap, logger, "articles");
@@ -297,12 +309,23 @@ public class DocumentParser {
 		return documents;		
 	}
 
+	/**
+	 * @return an iterator over the documents in the files of dir, parsing the files on parseThreads threads if parseThreads > 1
+	 */
+	private static DocumentIterator getDirectory(File dir, InputFactory factory, String acceptedSuffix, boolean recursive, int parseThreads){
+		if (parseThreads > 1)
+			return new ConcurrentParser(Directory.getParseProblems(dir, factory, acceptedSuffix, recursive), parseThreads);
+		else
+			return new Directory(dir, factory, acceptedSuffix, recursive);
+	}
+
 	public static String getDocumentHelpMessage() {
 		return "[--medlineIndex <file> --medlineBaseDir <dir>]\n" +
 		"[--medlinePMCIndex <file> --medlineBaseDir <dir> --pmcBaseDir <dir> --dtd <files>]\n" +
 		"[--pmcIndex <file> --pmcBaseDir<dir> --dtd <files>]\n" +
 		"[--textDir <dir> [--recursive]]\n"+
-		"[--OTMIDir <dir> [--recursive]]\n";
+		"[--OTMIDir <dir> [--recursive]]\n" +
+		"[--parseThreads <number of threads>]\n";
 	}
 
 	public static Map<String, Document> getDocumentsToHash(ArgParser ap) {
@@ -18,6 +18,7 @@ import martin.common.SQL;
 public class Document implements Serializable {
 	public enum Type {RESEARCH, REVIEW, OTHER}
 	public enum Text_raw_type {XML, OCR, PDF2TEXT, TEXT} 
+	public enum Section {TITLE, ABSTRACT, BODY, RAW}
 
 	private static final long serialVersionUID = 6268131204084207996L;
 	
@@ -39,6 +40,19 @@ public class Document implements Serializable {
 	private String pages;
 	
 	private String xml;
+
+	private static final String LATEX_START = "\\documentclass";
+	private static final String LATEX_END = "\\end{document}";
+
+	/**
+	 * the text returned by toString(), assembled on first use
+	 */
+	private transient volatile String text = null;
+
+	/**
+	 * the offsets in text at which each section starts, followed by the length of text (see getSectionOffsets())
+	 */
+	private transient int[] sectionOffsets = null;
 	
 	public Document(String id, String title, String abs, String body, String raw, Text_raw_type raw_type, String year, 
 			Journal journal, Type type, Author[] authors, String volume, String issue, String pages, String xml, ExternalID externalID){
@@ -73,22 +87,7 @@ public class Document implements Serializable {
 	}
 
 	public String toString(boolean simplify){
-		StringBuffer res = new StringBuffer();
-
-		if (title != null)
-			res.append(title + "\n");
-		
-		if (abs != null)
-			res.append(abs + "\n");
-
-		if (body != null)
-			res.append(body + "\n");
-
-		if (rawContent != null && rawContent.length() > 0)
-			res.append(rawContent);
-
-		String s = res.toString();
-		s = s.replaceAll("\\\\documentclass.*?\\\\end\\{document\\}", "");
+		String s = getText();
 
 		if (simplify){
 			while (s.indexOf("  ") != -1){
@@ -107,6 +106,115 @@ public class Document implements Serializable {
 		return s.toString();
 	}
 
+	/**
+	 * @return the title, abstract, body and raw content, separated by newlines and with any embedded LaTeX documents removed.
+	 * The text is assembled once, and then reused until a section is changed.
+	 */
+	private String getText(){
+		String res = this.text;
+		if (res != null)
+			return res;
+
+		int length = 0;
+		for (String section : new String[]{title, abs, body, rawContent})
+			if (section != null)
+				length += section.length() + 1;
+
+		StringBuilder sb = new StringBuilder(length);
+		int[] offsets = new int[5];
+
+		offsets[0] = sb.length();
+		if (title != null)
+			appendSection(sb, title).append('\n');
+
+		offsets[1] = sb.length();
+		if (abs != null)
+			appendSection(sb, abs).append('\n');
+
+		offsets[2] = sb.length();
+		if (body != null)
+			appendSection(sb, body).append('\n');
+
+		offsets[3] = sb.length();
+		if (rawContent != null && rawContent.length() > 0)
+			appendSection(sb, rawContent);
+
+		offsets[4] = sb.length();
+
+		res = sb.toString();
+		this.sectionOffsets = offsets;
+		this.text = res;
+		return res;
+	}
+
+	/**
+	 * Appends a section, leaving out any LaTeX documents embedded in it (from "\documentclass" to the first following
+	 * "\end{document}" on the same line). Since sections are separated by newlines, removing them per section gives the same
+	 * result as removing them from the assembled text.
+	 */
+	private static StringBuilder appendSection(StringBuilder sb, String section){
+		int from = 0;
+		int start = section.indexOf(LATEX_START);
+
+		while (start != -1){
+			int end = section.indexOf(LATEX_END, start + LATEX_START.length());
+			if (end == -1)
+				break;
+
+			int lineEnd = getLineEnd(section, start + LATEX_START.length());
+
+			if (end + LATEX_END.length() <= lineEnd){
+				sb.append(section, from, start);
+				from = end + LATEX_END.length();
+				start = section.indexOf(LATEX_START, from);
+			} else {
+				//the closest end is on a later line, so no document starting on this line can be removed
+				start = section.indexOf(LATEX_START, lineEnd);
+			}
+		}
+
+		return sb.append(section, from, section.length());
+	}
+
+	/**
+	 * @return the position of the first line terminator at or after from (or the length of s if there is none)
+	 */
+	private static int getLineEnd(String s, int from){
+		for (int i = from; i < s.length(); i++){
+			char c = s.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return i;
+		}
+		return s.length();
+	}
+
+	/**
+	 * @return the offsets in toString() at which the title, abstract, body and raw content start, followed by the length of
+	 * the text (sections that are missing have the same start as the next section)
+	 */
+	public int[] getSectionOffsets(){
+		getText();
+		return sectionOffsets.clone();
+	}
+
+	/**
+	 * @param offset an offset in toString(), e.g. the start of a mention
+	 * @return the section that the offset lies in (or null if it lies outside the text)
+	 */
+	public Section getSection(int offset){
+		getText();
+		int[] offsets = sectionOffsets;
+
+		if (offset < 0 || offset >= offsets[4])
+			return null;
+
+		for (int i = 3; i >= 0; i--)
+			if (offset >= offsets[i])
+				return Section.values()[i];
+
+		return null;
+	}
+
 	public void print(){
 		System.out.println(this.toString());
 		if (authors != null){
@@ -362,6 +470,7 @@ public class Document implements Serializable {
 	 */
 	public void setBody(String body) {
 		this.body = body;
+		this.text = null;
 	}
 
 
@@ -370,6 +479,7 @@ public class Document implements Serializable {
 	 */
 	public void setRawContent(String rawContent) {
 		this.rawContent = rawContent;
+		this.text = null;
 	}
 
 
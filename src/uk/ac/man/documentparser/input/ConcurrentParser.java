@@ -0,0 +1,56 @@
+package uk.ac.man.documentparser.input;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import martin.common.FlatteningIterator;
+import martin.common.compthreads.IteratorBasedMaster;
+import martin.common.compthreads.Problem;
+import uk.ac.man.documentparser.dataholders.Document;
+
+/**
+ * Document iterator which parses documents on a number of threads.
+ * The parsing work is given as problems (typically one per file or index entry), each returning the documents it parsed.
+ * Only the locating/reading of raw data is done by the problem iterator itself (on a single thread), while the problems
+ * (which do the XML parsing) are computed concurrently. Documents are returned in the same order as the problems.
+ * @author Martin
+ */
+public class ConcurrentParser implements DocumentIterator {
+	private FlatteningIterator<Document> documents;
+
+	/**
+	 * @param parseProblems problems that each parse a part of the document set (see e.g. Directory.getParseProblems())
+	 * @param numThreads the number of threads to parse on
+	 */
+	public ConcurrentParser(Iterator<Problem<List<Document>>> parseProblems, int numThreads){
+		IteratorBasedMaster<List<Document>> master = new IteratorBasedMaster<List<Document>>(parseProblems, numThreads);
+		master.startThread();
+		this.documents = new FlatteningIterator<Document>(master);
+	}
+
+	public boolean hasNext() {
+		return documents.hasNext();
+	}
+
+	public Document next() {
+		if (!hasNext())
+			throw new NoSuchElementException("no more documents available");
+		return documents.next();
+	}
+
+	/**
+	 * Skips the next document. Note that the document will still have been parsed.
+	 */
+	public void skip() {
+		next();
+	}
+
+	public void remove() {
+		throw new IllegalStateException("not implemented");
+	}
+
+	public Iterator<Document> iterator() {
+		return this;
+	}
+}
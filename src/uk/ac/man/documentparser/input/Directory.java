@@ -2,10 +2,13 @@ package uk.ac.man.documentparser.input;
 
 import java.io.File;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
+import martin.common.compthreads.Problem;
 import uk.ac.man.documentparser.dataholders.Document;
 
 public class Directory implements DocumentIterator {
@@ -104,4 +107,59 @@ public class Directory implements DocumentIterator {
 	public Iterator<Document> iterator() {
 		return this;
 	}
+
+	/**
+	 * Problem parsing all documents in a single file.
+	 */
+	private static class FileParseProblem implements Problem<List<Document>> {
+		private File file;
+		private InputFactory factory;
+
+		public FileParseProblem(File file, InputFactory factory){
+			this.file = file;
+			this.factory = factory;
+		}
+
+		public List<Document> compute() {
+			List<Document> res = new ArrayList<Document>();
+			for (Document d : factory.parse(file))
+				res.add(d);
+			return res;
+		}
+	}
+
+	/**
+	 * @return problems parsing the files in dir, one problem per file and in the same order as a Directory would return them. Used with ConcurrentParser in order to parse the files concurrently.
+	 */
+	public static Iterator<Problem<List<Document>>> getParseProblems(File dir, InputFactory factory, String acceptedSuffix, boolean recursive){
+		if (dir == null || !dir.isDirectory()){
+			System.err.println("You did not specify a valid directory path. This can be caused by:" +
+					" 1) no path was specified, or 2) the path you specified does not exist, or" +
+					" 3) the path you specified does not represent a directory. The program will now exit.");
+			System.exit(-1);
+		}
+
+		List<File> files = new ArrayList<File>();
+		listFiles(dir, acceptedSuffix, recursive, files);
+
+		List<Problem<List<Document>>> problems = new ArrayList<Problem<List<Document>>>(files.size());
+		for (File f : files)
+			problems.add(new FileParseProblem(f, factory));
+
+		return problems.iterator();
+	}
+
+	private static void listFiles(File dir, String acceptedSuffix, boolean recursive, List<File> files){
+		File[] contents = dir.listFiles();
+		Arrays.sort(contents);
+
+		for (File item : contents){
+			if (item.isDirectory()){
+				if (recursive)
+					listFiles(item, acceptedSuffix, recursive, files);
+			} else if (item.isFile() && (acceptedSuffix == null || item.getAbsolutePath().endsWith(acceptedSuffix))){
+				files.add(item);
+			}
+		}
+	}
 }
@@ -4,9 +4,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
+import martin.common.compthreads.Problem;
 import uk.ac.man.documentparser.dataholders.Document;
 
 public class MedlineIndex implements DocumentIterator {
@@ -74,46 +78,54 @@ public class MedlineIndex implements DocumentIterator {
 		this(baseDir,indexFile,null);
 	}
 
-	public Document next() {
-		Document doc = null;
-		try {
-			if (nextEntry != null){
-				String[] fields = nextEntry.split("\t");
-
-				String file = fields[1];
-				int start = Integer.parseInt(fields[2]);
-				int end = Integer.parseInt(fields[3]);
-
-				if (!file.equals(currentFile)){
-					if (currentFileStream != null)
-						currentFileStream.close();
+	/**
+	 * Reads the XML of the current index entry from the MEDLINE files (without parsing it)
+	 * @return the XML, wrapped as a complete MedlineCitationSet
+	 */
+	private StringBuffer readEntry() throws IOException {
+		String[] fields = nextEntry.split("\t");
+
+		String file = fields[1];
+		int start = Integer.parseInt(fields[2]);
+		int end = Integer.parseInt(fields[3]);
+
+		if (!file.equals(currentFile)){
+			if (currentFileStream != null)
+				currentFileStream.close();
+
+			this.currentFile = file;
+			this.currentFileStream = new BufferedReader(new FileReader(new File(medlineBaseDir,file)));
+			this.currentFilePassed = 0;
+			this.currentLine = currentFileStream.readLine();
+		}
 
-					this.currentFile = file;
-					this.currentFileStream = new BufferedReader(new FileReader(new File(medlineBaseDir,file)));
-					this.currentFilePassed = 0;
-					this.currentLine = currentFileStream.readLine();
-				}
+		while (start >= currentFilePassed + currentLine.length()){
+			currentFilePassed += currentLine.length();
+			currentLine = currentFileStream.readLine();
+		}
 
-				while (start >= currentFilePassed + currentLine.length()){
-					currentFilePassed += currentLine.length();
-					currentLine = currentFileStream.readLine();
-				}
+		StringBuffer data = new StringBuffer(startXML);
+		int localStart = Math.max(start - currentFilePassed,0);
+		//int localEnd = Math.min(end - currentFilePassed, currentLine.length());
 
-				StringBuffer data = new StringBuffer(startXML);
-				int localStart = Math.max(start - currentFilePassed,0);
-				//int localEnd = Math.min(end - currentFilePassed, currentLine.length());
+		while (end > currentFilePassed + currentLine.length()){
+			data.append(currentLine.substring(localStart));
+			currentFilePassed += currentLine.length();
+			localStart = Math.max(start - currentFilePassed,0);
+			currentLine = currentFileStream.readLine();
+		}
 
-				while (end > currentFilePassed + currentLine.length()){
-					data.append(currentLine.substring(localStart));
-					currentFilePassed += currentLine.length();
-					localStart = Math.max(start - currentFilePassed,0);
-					currentLine = currentFileStream.readLine();
-				}
+		data.append(currentLine.substring(localStart, end - currentFilePassed));
+		data.append(endXML);
 
-				data.append(currentLine.substring(localStart, end - currentFilePassed));
-				data.append(endXML);
+		return data;
+	}
 
-				doc = new Medline(data).next();
+	public Document next() {
+		Document doc = null;
+		try {
+			if (nextEntry != null){
+				doc = new Medline(readEntry()).next();
 
 				fetchNextLine();
 
@@ -140,4 +152,42 @@ public class MedlineIndex implements DocumentIterator {
 	public void skip() {
 		fetchNextLine();
 	}
+
+	/**
+	 * @return problems parsing the remaining index entries, one problem per entry. The XML of each entry is read from the MEDLINE files
+	 * by the returned iterator, while the parsing is done by the problems. Used with ConcurrentParser in order to parse the documents concurrently.
+	 */
+	public Iterator<Problem<List<Document>>> getParseProblems(){
+		return new Iterator<Problem<List<Document>>>(){
+			public boolean hasNext() {
+				return MedlineIndex.this.hasNext();
+			}
+
+			public Problem<List<Document>> next() {
+				StringBuffer entryData = null;
+				try {
+					entryData = readEntry();
+					fetchNextLine();
+				} catch (Exception e){
+					System.err.println(e);
+					e.printStackTrace();
+					System.exit(-1);
+				}
+
+				final StringBuffer data = entryData;
+
+				return new Problem<List<Document>>(){
+					public List<Document> compute() {
+						List<Document> res = new ArrayList<Document>(1);
+						res.add(new Medline(data).next());
+						return res;
+					}
+				};
+			}
+
+			public void remove() {
+				throw new IllegalStateException("Not implemented.");
+			}
+		};
+	}
 }
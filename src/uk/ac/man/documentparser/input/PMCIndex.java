@@ -4,8 +4,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
+import martin.common.compthreads.Problem;
 import uk.ac.man.documentparser.dataholders.Document;
 
 public class PMCIndex implements DocumentIterator {
@@ -52,20 +55,27 @@ public class PMCIndex implements DocumentIterator {
 		}
 	}
 
+	/**
+	 * @return the document described by an index entry
+	 */
+	private Document parseEntry(String entry){
+		String[] fields = entry.split(",");
+
+		String basePath = new File(pmcBaseDir,fields[2]).getAbsolutePath();
+		
+		boolean hasXML = fields[3].equals("1");
+		boolean hasXMLBody = fields[4].equals("1");
+		boolean hasOCR = fields[5].equals("1");
+		boolean hasPTT = fields[6].equals("1");
+
+		return new PMC(basePath, dtds, fields[0], hasXML, hasXMLBody, hasOCR, hasPTT).next();
+	}
+
 	public Document next() {
 		Document doc = null;
 		try {
 			if (nextEntry != null){
-				String[] fields = nextEntry.split(",");
-
-				String basePath = new File(pmcBaseDir,fields[2]).getAbsolutePath();
-				
-				boolean hasXML = fields[3].equals("1");
-				boolean hasXMLBody = fields[4].equals("1");
-				boolean hasOCR = fields[5].equals("1");
-				boolean hasPTT = fields[6].equals("1");
-
-				doc = new PMC(basePath, dtds, fields[0], hasXML, hasXMLBody, hasOCR, hasPTT).next();
+				doc = parseEntry(nextEntry);
 				
 				fetchNextLine();
 
@@ -92,4 +102,33 @@ public class PMCIndex implements DocumentIterator {
 	public void skip() {
 		fetchNextLine();
 	}
+
+	/**
+	 * @return problems parsing the remaining index entries, one problem per entry. The index file is read by the returned iterator,
+	 * while the documents are parsed by the problems. Used with ConcurrentParser in order to parse the documents concurrently.
+	 */
+	public Iterator<Problem<List<Document>>> getParseProblems(){
+		return new Iterator<Problem<List<Document>>>(){
+			public boolean hasNext() {
+				return PMCIndex.this.hasNext();
+			}
+
+			public Problem<List<Document>> next() {
+				final String entry = nextEntry;
+				fetchNextLine();
+
+				return new Problem<List<Document>>(){
+					public List<Document> compute() {
+						List<Document> res = new ArrayList<Document>(1);
+						res.add(parseEntry(entry));
+						return res;
+					}
+				};
+			}
+
+			public void remove() {
+				throw new IllegalStateException("Not implemented.");
+			}
+		};
+	}
 }
@@ -105,7 +105,10 @@ public class EntityTagger {
 			//allows us to use automaton dictionaries for matching
 			for (File f : ap.getFiles("automatons" + tag)){
 				logger.info("%t: Loading automatons from file " + f.getAbsolutePath() + "...\n");
-				Matcher m = uk.ac.man.entitytagger.matching.matchers.AutomatonMatcher.loadMatcher(f);
+				uk.ac.man.entitytagger.matching.matchers.AutomatonMatcher m = uk.ac.man.entitytagger.matching.matchers.AutomatonMatcher.loadMatcher(f);
+				//if set, documents of at least this length are scanned by the automatons concurrently
+				if (ap.containsKey("parallelAutomatons" + tag))
+					m.setParallelLength(ap.getInt("parallelAutomatons" + tag));
 				matchers.add(m);
 				logger.info("%t: Done, loaded " + m.size() + " automatons.\n");
 			}
@@ -211,7 +214,10 @@ public class EntityTagger {
 			return null;
 		}
 		
-		Matcher matcher = matchers.size() == 1 ? matchers.get(0) : new MultiMatcher(matchers, true);
+		//if set, the matchers are run concurrently for each document
+		boolean concurrentMatchers = ap.containsKey("concurrentMatchers" + tag);
+
+		Matcher matcher = matchers.size() == 1 ? matchers.get(0) : new MultiMatcher(matchers, true, concurrentMatchers);
 		if (ap.containsKey("duplicates" + tag))
 			matcher = new DuplicationMatcher(matcher);
 		
@@ -228,6 +234,11 @@ public class EntityTagger {
 		"[--outDir <output dir>]\n" +
 		"[--outHTML <html output file>]\n\n" +
 		"[--threads <number of threads>]\n" +
+		"[--concurrentMatchers]\n" +
+		"[--parallelAutomatons <min document length>]\n" +
+		"[--writeThreads <number of threads>]\n" +
+		"[--maxInFlightMB <megabytes>]\n" +
+		"[--unordered]\n" +
 		"[--properties <file>]";
 
 		msg += DocumentParser.getDocumentHelpMessage();
@@ -252,9 +263,18 @@ public class EntityTagger {
 		//determines number of threads used for concurrent processing
 		int numThreads = ap.getInt("threads",1);
 
+		//determines number of threads used for formatting and writing output (--parseThreads, for parsing the input, is handled by DocumentParser)
+		int writeThreads = ap.getInt("writeThreads",1);
+
+		//if set, no new documents are matched while the matched documents waiting to be written are estimated to use more than this many MB
+		Long maxInFlightBytes = ap.containsKey("maxInFlightMB") ? ap.getInt("maxInFlightMB") * 1024L * 1024L : null;
+
 		//determines progress reporting: e.g. report = 1000 will print a short message after every 1000 processed documents.
 		int report = ap.getInt("report", -1);
 
+		//if set, documents are written as soon as they are matched rather than in input order (for --out, --outDir and --outDB)
+		boolean ordered = !ap.containsKey("unordered");
+
 		Logger logger = Loggers.getDefaultLogger(ap);
 
 		//load the matcher
@@ -265,35 +285,35 @@ public class EntityTagger {
 
 		if (ap.containsKey("out")){
 			//saves all matches to a single file
-			MatchOperations.runToFile(matcher,documents, numThreads, report, ap.getFile("out"), logger);
+			MatchOperations.runToFile(matcher,documents, numThreads, report, ap.getFile("out"), logger, ordered, writeThreads, maxInFlightBytes);
 		}
 
 		if (ap.containsKey("outDir")){
 			//saves matches to one file per document
-			MatchOperations.run(matcher,documents, numThreads, report, ap.getFile("outDir"),logger);
+			MatchOperations.run(matcher,documents, numThreads, report, ap.getFile("outDir"),logger, ordered, writeThreads, maxInFlightBytes);
 		}
 
 		if (ap.containsKey("outHTML")){
 			//produces HTML document output for visual inspection
-			MatchOperations.runHTML(matcher,documents, numThreads, ap.getFile("outHTML"), report,logger, Format.HTML, !ap.containsKey("nolinks"));
+			MatchOperations.runHTML(matcher,documents, numThreads, ap.getFile("outHTML"), report,logger, Format.HTML, !ap.containsKey("nolinks"), null, writeThreads, maxInFlightBytes);
 		}
 
 		if (ap.containsKey("outXML")){
 			//produces XML document output
-			MatchOperations.runHTML(matcher,documents, numThreads, ap.getFile("outXML"), report,logger, Format.XMLTags);
+			MatchOperations.runHTML(matcher,documents, numThreads, ap.getFile("outXML"), report,logger, Format.XMLTags, true, null, writeThreads, maxInFlightBytes);
 		}
 
 		if (ap.containsKey("outDB")){
 			//saves the output to a database
 			Connection dbConn = martin.common.SQL.connectMySQL(ap, logger, "out");
-			MatchOperations.runDB(matcher,documents,numThreads,ap.get("outDB"), report, logger, dbConn);
+			MatchOperations.runDB(matcher,documents,numThreads,ap.get("outDB"), report, logger, dbConn, ordered, maxInFlightBytes);
 		}
 
 		if (ap.containsKey("outWithContext")){
 			//saves the output to a file, together with text directly surrounding the identified mentions
 			int pre = ap.getInt("pre", 50); //number of chars prior to the mention to include
 			int post = ap.getInt("post", 50); //number of chars past the mention to include
-			MatchOperations.runOutWithContext(matcher, documents, numThreads, report, ap.getFile("outWithContext"), logger, pre, post);
+			MatchOperations.runOutWithContext(matcher, documents, numThreads, report, ap.getFile("outWithContext"), logger, pre, post, writeThreads, maxInFlightBytes);
 		}
 
 		if (ap.containsKey("server")){
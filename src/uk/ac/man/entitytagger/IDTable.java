@@ -0,0 +1,163 @@
+package uk.ac.man.entitytagger;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table interning entity ids (e.g. "species:ncbi:9606"), shared by the matchers and postprocessors through getGlobal().
+ * Each distinct id is given a dense int (its entity number), and each distinct pair of id and line number (as given by
+ * dictionaries with line numbers, on the form "id|line") an entry number. Ids can then be handled as ints, and all mentions
+ * share the same String instances for their ids.
+ * Adding ids is synchronized, while lookups are not: an entry or entity number can only be obtained once it has been added.
+ * @author Martin
+ */
+public class IDTable {
+	private static final IDTable global = new IDTable();
+
+	/**
+	 * entry numbers by raw ("id|line") id, and by id and line number (separated by a newline, which ids cannot contain)
+	 */
+	private ConcurrentHashMap<String,Integer> rawEntries = new ConcurrentHashMap<String,Integer>();
+	private ConcurrentHashMap<String,Integer> entries = new ConcurrentHashMap<String,Integer>();
+	private ConcurrentHashMap<String,Integer> entities = new ConcurrentHashMap<String,Integer>();
+
+	/**
+	 * the entity and line number of each entry, and the id of each entity. The arrays are replaced when full, and elements
+	 * are written before the counts, so that readers holding a number obtained from the table always see its element.
+	 */
+	private volatile int[] entryEntities = new int[1024];
+	private volatile String[] entryLines = new String[1024];
+	private volatile int numEntries = 0;
+
+	private volatile String[] entityIDs = new String[1024];
+	private volatile int numEntities = 0;
+
+	/**
+	 * @return the table shared by all matchers
+	 */
+	public static IDTable getGlobal(){
+		return global;
+	}
+
+	/**
+	 * @param rawID an id, optionally followed by "|" and a line number
+	 * @return the entry number of the id, which is split in the same way as by the Mention constructor
+	 */
+	public int getEntry(String rawID){
+		Integer entry = rawEntries.get(rawID);
+		if (entry != null)
+			return entry;
+
+		String[] fields = Mention.splitID(rawID);
+		int res = fields != null ? getEntry(fields[0], fields[1]) : getEntry(rawID, null);
+		rawEntries.putIfAbsent(rawID, res);
+		return res;
+	}
+
+	/**
+	 * @param line the line number (may be null)
+	 * @return the entry number of the id and line number
+	 */
+	public int getEntry(String id, String line){
+		String key = line != null ? id + '\n' + line : id;
+		Integer entry = entries.get(key);
+		if (entry != null)
+			return entry;
+
+		synchronized (this){
+			entry = entries.get(key);
+			if (entry != null)
+				return entry;
+
+			int entity = getEntity(id);
+			int res = numEntries;
+
+			if (res == entryEntities.length){
+				int[] e = new int[res * 2];
+				String[] l = new String[res * 2];
+				System.arraycopy(entryEntities, 0, e, 0, res);
+				System.arraycopy(entryLines, 0, l, 0, res);
+				entryEntities = e;
+				entryLines = l;
+			}
+
+			entryEntities[res] = entity;
+			entryLines[res] = line;
+			numEntries = res + 1;
+
+			entries.put(key, res);
+			return res;
+		}
+	}
+
+	/**
+	 * @return the entity number of an id, adding it if needed
+	 */
+	public int getEntity(String id){
+		Integer entity = entities.get(id);
+		if (entity != null)
+			return entity;
+
+		synchronized (this){
+			entity = entities.get(id);
+			if (entity != null)
+				return entity;
+
+			int res = numEntities;
+
+			if (res == entityIDs.length){
+				String[] ids = new String[res * 2];
+				System.arraycopy(entityIDs, 0, ids, 0, res);
+				entityIDs = ids;
+			}
+
+			entityIDs[res] = id;
+			numEntities = res + 1;
+
+			entities.put(id, res);
+			return res;
+		}
+	}
+
+	/**
+	 * @return the entity number of an id, or -1 if it has not been added
+	 */
+	public int findEntity(String id){
+		Integer entity = entities.get(id);
+		return entity != null ? entity : -1;
+	}
+
+	/**
+	 * @return the entity number of an entry
+	 */
+	public int getEntityOfEntry(int entry){
+		return entryEntities[entry];
+	}
+
+	/**
+	 * @return the id (without line number) of an entry
+	 */
+	public String getID(int entry){
+		return entityIDs[entryEntities[entry]];
+	}
+
+	/**
+	 * @return the line number of an entry (null if none)
+	 */
+	public String getLine(int entry){
+		return entryLines[entry];
+	}
+
+	/**
+	 * @return the id of an entity
+	 */
+	public String getEntityID(int entity){
+		return entityIDs[entity];
+	}
+
+	/**
+	 * @return the number of entities in the table (entity numbers are 0 to getNumEntities()-1)
+	 */
+	public int getNumEntities(){
+		return numEntities;
+	}
+}
@@ -126,7 +126,13 @@ public class Mention implements Comparable<Mention>, Serializable {
 	}
 
 	public Mention clone(){
-		Mention m = new Mention(getIdsWithLineNumbers().clone(), start, end, text);
+		//the ids are already split from their line numbers, and do not need to be joined and split again
+		String[] lines = new String[ids.length];
+		if (idLines != null)
+			for (int i = 0; i < ids.length; i++)
+				lines[i] = idLines[i];
+
+		Mention m = new Mention(ids.clone(), lines, start, end, text);
 		m.setProbabilities(probabilities != null ? probabilities.clone() : null);
 		m.setComment(comment);
 		m.setDocid(docid);
@@ -192,16 +198,56 @@ public class Mention implements Comparable<Mention>, Serializable {
 		idLines = new String[ids.length];
 
 		for (int i = 0; i < ids.length; i++){
-			if (ids[i].contains(COMMENT_SEPARATOR)){
-				String[] fields = ids[i].split("\\"+COMMENT_SEPARATOR);
-				if (fields.length == 2){
-					this.ids[i] = fields[0];
-					idLines[i] = fields[1];
-				}
+			String[] fields = splitID(ids[i]);
+			if (fields != null){
+				this.ids[i] = fields[0];
+				idLines[i] = fields[1];
 			}
 		}
 	}
 
+	/**
+	 * Splits an id on the form "id|line" into the id and line number. The id is split in the same way as by String.split() on
+	 * the separator (so that e.g. trailing separators are ignored), but without creating any objects for ids without line numbers.
+	 * @return the id and line number, or null if the id does not consist of exactly these two fields
+	 */
+	public static String[] splitID(String rawID){
+		char separator = COMMENT_SEPARATOR.charAt(0);
+
+		int sep = rawID.indexOf(separator);
+		if (sep == -1)
+			return null;
+
+		int end = rawID.length();
+		while (end > 0 && rawID.charAt(end-1) == separator)
+			end--;
+
+		if (sep >= end)
+			return null;
+
+		int next = rawID.indexOf(separator, sep + 1);
+		if (next != -1 && next < end)
+			return null;
+
+		return new String[]{rawID.substring(0, sep), rawID.substring(sep + 1, end)};
+	}
+
+	/**
+	 * Creates a mention with ids and line numbers given separately, rather than as "id|line" strings to be split.
+	 * @param ids the ids
+	 * @param idLines the line number of each id (null elements for ids without line numbers)
+	 */
+	public Mention(String[] ids, String[] idLines, int start, int end, String text){
+		if (ids.length != idLines.length)
+			throw new IllegalStateException("Different number of ids and id lines");
+
+		this.ids = ids;
+		this.idLines = idLines;
+		this.start = start;
+		this.end = end;
+		this.text = text;
+	}
+
 	/**
 	 * @param id
 	 * @return whether the Match contains the given id
@@ -598,6 +644,13 @@ public class Mention implements Comparable<Mention>, Serializable {
 		return res;
 	}
 
+	/**
+	 * @return the line number of each id (null for ids without line numbers), or null if not known
+	 */
+	public String[] getIdLines() {
+		return idLines;
+	}
+
 	public String[] getIdsWithLineNumbers() {
 		if (idLines == null) 
 			return ids;
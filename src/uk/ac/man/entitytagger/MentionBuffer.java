@@ -0,0 +1,345 @@
+package uk.ac.man.entitytagger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar store for the mentions of a single document. Coordinates are held in int arrays, ids as entry numbers in the
+ * global IDTable (where "id|line" ids are split once per distinct id rather than once per mention), and probabilities in
+ * a double array. Mention texts are not stored, but taken from the text through the mention coordinates.
+ * Mention objects are only created when requested, so that matchers and post-processing steps handling large numbers of raw
+ * matches (most of which are later combined or discarded) do not need to allocate a Mention, with its arrays, for each match.
+ * @author Martin
+ */
+public class MentionBuffer {
+	private static final int TEXT = 0;
+	private static final int COMMENT = 1;
+	private static final int DOCID = 2;
+
+	private static final IDTable table = IDTable.getGlobal();
+
+	private String text;
+	private String docid;
+
+	private int size = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+
+	/**
+	 * the ids (IDTable entry numbers) of mention i are ids[idStarts[i]] to ids[idStarts[i+1]-1]
+	 */
+	private int[] idStarts = new int[17];
+	private int numIDs = 0;
+	private int[] ids = new int[16];
+
+	/**
+	 * the probability of each id (NaN if it has none), null until any probability has been added
+	 */
+	private double[] probabilities = null;
+
+	/**
+	 * per-mention texts, comments and document ids, each only allocated once a mention has been added whose value differs
+	 * from the default (the text at the mention coordinates, "" and the document id of the buffer, respectively)
+	 */
+	private String[][] values = new String[3][];
+
+	/**
+	 * @param text the text that the mention coordinates refer to (may be null, in which case mentions have no texts unless
+	 * added through add(Mention))
+	 * @param docid the document id of the mentions
+	 */
+	public MentionBuffer(String text, String docid){
+		this.text = text;
+		this.docid = docid;
+	}
+
+	/**
+	 * Creates a buffer holding a list of mentions
+	 * @param text the text that the mention coordinates refer to (may be null)
+	 * @param docid the default document id of the mentions
+	 * @param mentions the mentions to add (which may have texts, comments and document ids of their own)
+	 */
+	public MentionBuffer(String text, String docid, List<Mention> mentions){
+		this(text, docid);
+		for (Mention m : mentions)
+			add(m);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the text that the mention coordinates refer to
+	 */
+	public String getText(){
+		return text;
+	}
+
+	/**
+	 * @return the document id of the buffer
+	 */
+	public String getDocid(){
+		return docid;
+	}
+
+	public int getStart(int i){
+		return starts[i];
+	}
+
+	public int getEnd(int i){
+		return ends[i];
+	}
+
+	public int getNumIDs(int i){
+		return idStarts[i+1] - idStarts[i];
+	}
+
+	/**
+	 * @return the j:th id of mention i, without line number
+	 */
+	public String getID(int i, int j){
+		return table.getID(ids[idStarts[i] + j]);
+	}
+
+	/**
+	 * @return the IDTable entry number of the j:th id of mention i
+	 */
+	public int getEntry(int i, int j){
+		return ids[idStarts[i] + j];
+	}
+
+	/**
+	 * @return the line number of the j:th id of mention i (null if none)
+	 */
+	public String getIDLine(int i, int j){
+		return table.getLine(ids[idStarts[i] + j]);
+	}
+
+	/**
+	 * @return the probability of the j:th id of mention i (NaN if none)
+	 */
+	public double getProbability(int i, int j){
+		return probabilities != null ? probabilities[idStarts[i] + j] : Double.NaN;
+	}
+
+	public String getText(int i){
+		return getValue(TEXT, i);
+	}
+
+	public String getComment(int i){
+		return getValue(COMMENT, i);
+	}
+
+	public String getDocid(int i){
+		return getValue(DOCID, i);
+	}
+
+	private String getValue(int field, int i){
+		return values[field] != null ? values[field][i] : getDefault(field, i);
+	}
+
+	private String getDefault(int field, int i){
+		if (field == COMMENT)
+			return "";
+		if (field == DOCID)
+			return docid;
+
+		int s = starts[i];
+		int e = ends[i];
+		return text != null && s >= 0 && s <= e && e <= text.length() ? text.substring(s, e) : null;
+	}
+
+	/**
+	 * Sets a per-mention value of the mention currently being added, allocating the values of the field if it differs from the default
+	 */
+	private void setValue(int field, String value){
+		if (values[field] == null){
+			String def = getDefault(field, size);
+			if (value == null ? def == null : value.equals(def))
+				return;
+
+			values[field] = new String[starts.length];
+			for (int i = 0; i < size; i++)
+				values[field][i] = getDefault(field, i);
+		}
+
+		values[field][size] = value;
+	}
+
+	/**
+	 * Adds a mention
+	 * @param rawIDs the ids, optionally followed by "|" and a line number
+	 */
+	public void add(int start, int end, String[] rawIDs){
+		begin(start, end);
+		for (String id : rawIDs)
+			addID(table.getEntry(id), Double.NaN);
+		finish();
+	}
+
+	/**
+	 * Adds a mention
+	 * @param rawIDs the ids, optionally followed by "|" and a line number
+	 */
+	public void add(int start, int end, List<String> rawIDs){
+		begin(start, end);
+		for (String id : rawIDs)
+			addID(table.getEntry(id), Double.NaN);
+		finish();
+	}
+
+	/**
+	 * Adds a mention
+	 * @param entries the IDTable entry numbers of the ids
+	 */
+	public void add(int start, int end, int[] entries){
+		begin(start, end);
+		for (int entry : entries)
+			addID(entry, Double.NaN);
+		finish();
+	}
+
+	/**
+	 * Adds a mention
+	 * @param entries the IDTable entry numbers of the ids (of which the first length are used, so that callers can reuse
+	 * the array)
+	 */
+	public void add(int start, int end, int[] entries, int length){
+		begin(start, end);
+		for (int k = 0; k < length; k++)
+			addID(entries[k], Double.NaN);
+		finish();
+	}
+
+	/**
+	 * Adds a mention, including its text, comment, document id and probabilities
+	 */
+	public void add(Mention m){
+		begin(m.getStart(), m.getEnd());
+
+		String[] mIDs = m.getIds();
+		String[] mLines = m.getIdLines();
+		Double[] mProbs = m.getProbabilities();
+
+		for (int j = 0; j < mIDs.length; j++)
+			addID(table.getEntry(mIDs[j], mLines != null ? mLines[j] : null), mProbs != null && mProbs[j] != null ? mProbs[j] : Double.NaN);
+
+		setValue(TEXT, m.getText());
+		setValue(COMMENT, m.getComment());
+		setValue(DOCID, m.getDocid());
+		finish();
+	}
+
+	/**
+	 * Adds mention i of another buffer
+	 */
+	public void add(MentionBuffer other, int i){
+		begin(other.starts[i], other.ends[i]);
+
+		for (int k = other.idStarts[i]; k < other.idStarts[i+1]; k++)
+			addID(other.ids[k], other.probabilities != null ? other.probabilities[k] : Double.NaN);
+
+		//texts only need to be compared if the buffers refer to different texts
+		if (other.text != text || other.values[TEXT] != null)
+			setValue(TEXT, other.getText(i));
+		if (other.values[COMMENT] != null)
+			setValue(COMMENT, other.getComment(i));
+		if (other.values[DOCID] != null || !equals(other.docid, docid))
+			setValue(DOCID, other.getDocid(i));
+		finish();
+	}
+
+	private static boolean equals(String s1, String s2){
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	private void begin(int start, int end){
+		if (size == starts.length){
+			int capacity = starts.length * 2;
+			starts = copyOf(starts, capacity);
+			ends = copyOf(ends, capacity);
+			idStarts = copyOf(idStarts, capacity + 1);
+			for (int f = 0; f < values.length; f++)
+				if (values[f] != null){
+					String[] v = new String[capacity];
+					System.arraycopy(values[f], 0, v, 0, size);
+					values[f] = v;
+				}
+		}
+
+		starts[size] = start;
+		ends[size] = end;
+	}
+
+	private void finish(){
+		size++;
+		idStarts[size] = numIDs;
+	}
+
+	private void addID(int index, double probability){
+		if (numIDs == ids.length){
+			ids = copyOf(ids, ids.length * 2);
+			if (probabilities != null){
+				double[] p = new double[ids.length];
+				System.arraycopy(probabilities, 0, p, 0, numIDs);
+				probabilities = p;
+			}
+		}
+
+		if (probabilities == null && !Double.isNaN(probability)){
+			probabilities = new double[ids.length];
+			for (int k = 0; k < numIDs; k++)
+				probabilities[k] = Double.NaN;
+		}
+
+		ids[numIDs] = index;
+		if (probabilities != null)
+			probabilities[numIDs] = probability;
+		numIDs++;
+	}
+
+	private static int[] copyOf(int[] a, int length){
+		int[] res = new int[length];
+		System.arraycopy(a, 0, res, 0, Math.min(a.length, length));
+		return res;
+	}
+
+	/**
+	 * @return mention i, as a Mention object
+	 */
+	public Mention getMention(int i){
+		int n = getNumIDs(i);
+		String[] mIDs = new String[n];
+		String[] mLines = new String[n];
+		Double[] mProbs = null;
+
+		for (int j = 0; j < n; j++){
+			mIDs[j] = getID(i, j);
+			mLines[j] = getIDLine(i, j);
+
+			double p = getProbability(i, j);
+			if (!Double.isNaN(p)){
+				if (mProbs == null)
+					mProbs = new Double[n];
+				mProbs[j] = p;
+			}
+		}
+
+		Mention m = new Mention(mIDs, mLines, starts[i], ends[i], getText(i));
+		m.setComment(getComment(i));
+		m.setDocid(getDocid(i));
+		m.setProbabilities(mProbs);
+		return m;
+	}
+
+	/**
+	 * @return the mentions of the buffer, as Mention objects
+	 */
+	public List<Mention> toMentions(){
+		List<Mention> res = new ArrayList<Mention>(size);
+		for (int i = 0; i < size; i++)
+			res.add(getMention(i));
+		return res;
+	}
+}
@@ -0,0 +1,190 @@
+package uk.ac.man.entitytagger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index over the mentions of a single document, allowing mentions to be looked up by position through binary search
+ * rather than by scanning the full list (which also would require the list to be sorted).
+ * The mentions are sorted by start and end coordinates, and their coordinates kept in primitive arrays.
+ * @author Martin
+ */
+public class MentionIndex {
+	private Mention[] mentions;
+	private int[] starts;
+	private int[] ends;
+
+	/**
+	 * maxEnds[i] is the largest end coordinate of mentions[0..i]
+	 */
+	private int[] maxEnds;
+
+	/**
+	 * the mention indices, ordered by mention midpoint (and by mention index for equal midpoints), and the corresponding midpoints
+	 */
+	private int[] byMid;
+	private int[] mids;
+
+	/**
+	 * @param mentions the mentions to index (the list itself is not modified)
+	 */
+	public MentionIndex(List<Mention> mentions){
+		Mention[] sorted = mentions.toArray(new Mention[mentions.size()]);
+		Arrays.sort(sorted, new Comparator<Mention>(){
+			public int compare(Mention m1, Mention m2) {
+				if (m1.getStart() != m2.getStart())
+					return m1.getStart() < m2.getStart() ? -1 : 1;
+				if (m1.getEnd() != m2.getEnd())
+					return m1.getEnd() < m2.getEnd() ? -1 : 1;
+				return 0;
+			}
+		});
+
+		init(sorted);
+	}
+
+	/**
+	 * @param sorted mentions that already are sorted by start and end coordinates
+	 */
+	private MentionIndex(Mention[] sorted){
+		init(sorted);
+	}
+
+	private void init(Mention[] sorted){
+		int n = sorted.length;
+		this.mentions = sorted;
+		this.starts = new int[n];
+		this.ends = new int[n];
+		this.maxEnds = new int[n];
+
+		for (int i = 0; i < n; i++){
+			starts[i] = sorted[i].getStart();
+			ends[i] = sorted[i].getEnd();
+			maxEnds[i] = i > 0 ? Math.max(maxEnds[i-1], ends[i]) : ends[i];
+		}
+
+		//midpoint order is only needed by findClosestMention(), and typically only for small (sentence) indices
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = ((long) ((starts[i] + ends[i]) / 2) << 32) | i;
+		Arrays.sort(keys);
+
+		this.byMid = new int[n];
+		this.mids = new int[n];
+		for (int i = 0; i < n; i++){
+			byMid[i] = (int) keys[i];
+			mids[i] = (int) (keys[i] >> 32);
+		}
+	}
+
+	public int size(){
+		return mentions.length;
+	}
+
+	public Mention get(int i){
+		return mentions[i];
+	}
+
+	/**
+	 * @return the mentions, sorted by start and end coordinates
+	 */
+	public List<Mention> asList(){
+		return new ArrayList<Mention>(Arrays.asList(mentions));
+	}
+
+	/**
+	 * @return the index of the first mention starting at or after pos
+	 */
+	private int firstStartingAt(int pos){
+		int lo = 0;
+		int hi = starts.length;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] < pos)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the mentions lying fully within [start, end], sorted by start and end coordinates
+	 */
+	public List<Mention> getMentionsInRange(int start, int end){
+		List<Mention> res = new ArrayList<Mention>();
+		for (int i = firstStartingAt(start); i < starts.length && starts[i] <= end; i++)
+			if (ends[i] <= end)
+				res.add(mentions[i]);
+		return res;
+	}
+
+	/**
+	 * @return whether any mention lies fully within [start, end]
+	 */
+	public boolean hasMentionsInRange(int start, int end){
+		for (int i = firstStartingAt(start); i < starts.length && starts[i] <= end; i++)
+			if (ends[i] <= end)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return an index over the mentions lying fully within [start, end] (e.g. the mentions of a sentence)
+	 */
+	public MentionIndex getIndexInRange(int start, int end){
+		return new MentionIndex(getMentionsInRange(start, end).toArray(new Mention[0]));
+	}
+
+	/**
+	 * @return the mention whose midpoint is closest to pos (the first one, in start order, if several are equally close), or null if there are no mentions
+	 */
+	public Mention findClosestMention(int pos){
+		int n = mids.length;
+		if (n == 0)
+			return null;
+
+		//first mention (in midpoint order) with a midpoint at or after pos
+		int lo = 0;
+		int hi = n;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (mids[mid] < pos)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		int dist = Integer.MAX_VALUE;
+		if (lo < n)
+			dist = mids[lo] - pos;
+		if (lo > 0)
+			dist = Math.min(dist, pos - mids[lo-1]);
+
+		//among the equally close mentions (on either side of pos), pick the one first in start order
+		int best = Integer.MAX_VALUE;
+		for (int i = lo; i < n && mids[i] - pos == dist; i++)
+			best = Math.min(best, byMid[i]);
+		for (int i = lo - 1; i >= 0 && pos - mids[i] == dist; i--)
+			best = Math.min(best, byMid[i]);
+
+		return mentions[best];
+	}
+
+	/**
+	 * @return whether any of the indexed mentions overlaps with m (as defined by Mention.overlaps())
+	 */
+	public boolean overlapsAny(Mention m){
+		//mentions starting after m ends cannot overlap it
+		int i = firstStartingAt(m.getEnd() + 1) - 1;
+
+		//once all remaining mentions end before m starts, none of them can overlap it
+		for (; i >= 0 && maxEnds[i] >= m.getStart(); i--)
+			if (Mention.overlaps(mentions[i], m))
+				return true;
+
+		return false;
+	}
+}
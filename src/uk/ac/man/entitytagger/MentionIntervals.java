@@ -0,0 +1,70 @@
+package uk.ac.man.entitytagger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of mentions that can be added to, allowing overlap tests (as defined by Mention.overlaps()) without comparing
+ * to every mention in the set. The mentions are held per document id, by start coordinate.
+ * @author Martin
+ */
+public class MentionIntervals {
+	/**
+	 * for each document id, the largest end coordinate of the mentions starting at each start coordinate
+	 */
+	private Map<String,TreeMap<Integer,Integer>> maxEnds = new HashMap<String,TreeMap<Integer,Integer>>();
+	private int maxLength = 0;
+
+	public void add(Mention m){
+		add(m.getDocid(), m.getStart(), m.getEnd());
+	}
+
+	/**
+	 * Adds the mention at [start, end) of document docid
+	 */
+	public void add(String docid, int start, int end){
+		TreeMap<Integer,Integer> ends = maxEnds.get(docid);
+		if (ends == null){
+			ends = new TreeMap<Integer,Integer>();
+			maxEnds.put(docid, ends);
+		}
+
+		Integer prev = ends.get(start);
+		if (prev == null || prev < end)
+			ends.put(start, end);
+
+		maxLength = Math.max(maxLength, end - start);
+	}
+
+	/**
+	 * @return whether any mention in the set overlaps m
+	 */
+	public boolean overlaps(Mention m){
+		return overlaps(m.getDocid(), m.getStart(), m.getEnd());
+	}
+
+	/**
+	 * @return whether any mention in the set overlaps the mention at [s, e) of document docid
+	 */
+	public boolean overlaps(String docid, int s, int e){
+		TreeMap<Integer,Integer> ends = maxEnds.get(docid);
+		if (ends == null)
+			return false;
+
+		//mentions starting within the mention
+		Integer next = ends.ceilingKey(s);
+		if (next != null && next < e)
+			return true;
+
+		//mentions starting at or before the start of the mention and ending after it (which cannot be longer than maxLength)
+		for (Map.Entry<Integer,Integer> entry : ends.headMap(s, true).descendingMap().entrySet()){
+			if (entry.getKey() <= s - maxLength)
+				break;
+			if (entry.getValue() > s)
+				return true;
+		}
+
+		return false;
+	}
+}
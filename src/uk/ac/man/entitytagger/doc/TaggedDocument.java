@@ -7,6 +7,7 @@ import java.util.List;
 
 import martin.common.Function;
 import martin.common.Pair;
+import martin.common.Sizeable;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
@@ -15,9 +16,14 @@ import uk.ac.man.entitytagger.Mention;
  * Class representing a tagged document. Contains the original document, and the tags found in that document by a matcher.
  * @author Martin
  */
-public class TaggedDocument {
+public class TaggedDocument implements Sizeable {
 	public enum Format{XMLTags,HTML, Alibaba}
 
+	/**
+	 * rough estimate of the memory used by a mention (the object itself, its id array and strings)
+	 */
+	private static final long MENTION_BYTES = 256;
+
 	private Document original;
 	private TaggedSection[] abs, body;
 	private List<Mention> rawMatches;
@@ -31,6 +37,19 @@ public class TaggedDocument {
 		this.rawContent = rawContent;
 	}
 
+	/**
+	 * @return a rough estimate of the memory used by this document: its text (held both by the original document and
+	 * as the raw content, at two bytes per character) and its mentions
+	 */
+	public long sizeof() {
+		long size = 0;
+		if (rawContent != null)
+			size += 4L * rawContent.length();
+		if (rawMatches != null)
+			size += MENTION_BYTES * rawMatches.size();
+		return size;
+	}
+
 	public StringBuffer toHTML(boolean link, Function<Pair<String>> alternativeTagFunction){
 		if (rawMatches == null)
 			return new StringBuffer(original.toString());
@@ -188,9 +188,16 @@ class GenerateAutomatons {
 		return res;
 	}
 
+	/**
+	 * Loads runautomatons serialized by storeRArray(). Files stored in the mapped format (see AutomatonMatcher.storeMapped())
+	 * cannot be loaded, as they do not hold the automatons in a form that can be converted back.
+	 */
 	static CustomRunAutomaton[] loadRArray(File file, Logger logger){
 		CustomRunAutomaton[] r = null;
 		try {
+			if (uk.ac.man.entitytagger.matching.matchers.AutomatonMatcher.isMapped(file))
+				throw new IllegalStateException("File " + file.getAbsolutePath() + " is stored in the mapped format, which can only be loaded for matching (by AutomatonMatcher.loadMatcher()); regenerate the automatons from the dictionary instead");
+
 			ObjectInputStream inStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
 
 			int size = inStream.readInt();
@@ -213,7 +220,11 @@ class GenerateAutomatons {
 		return r;
 	}
 
-	static void storeRArray(ArrayList<Automaton> list, boolean ignoreCase, boolean tableize, File file, Logger logger){
+	/**
+	 * Converts automatons to runautomatons and stores them to file, either serialized or (if mapped is set) in the format
+	 * that is memory-mapped when loaded (see AutomatonMatcher.storeMapped())
+	 */
+	static void storeRArray(ArrayList<Automaton> list, boolean ignoreCase, boolean tableize, boolean mapped, File file, Logger logger){
 		CustomRunAutomaton[] r = new CustomRunAutomaton[list.size()];
 
 		logger.info("%t: Converting automatons to runautomatons (tableize = " + tableize + ")...");
@@ -221,6 +232,13 @@ class GenerateAutomatons {
 			r[i] = new CustomRunAutomaton(list.get(i),tableize);
 		logger.info(" done.\n");
 
+		if (mapped){
+			logger.info("%t: Storing runautomatons in mapped format...");
+			uk.ac.man.entitytagger.matching.matchers.AutomatonMatcher.storeMapped(r, ignoreCase, file);
+			logger.info(" done. Stored " + r.length + " runautomatons to file " + file.getAbsolutePath() + "\n");
+			return;
+		}
+
 		try {
 			logger.info("%t: Storing runautomatons...");
 			ObjectOutputStream outStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
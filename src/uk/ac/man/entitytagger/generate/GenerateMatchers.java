@@ -97,12 +97,25 @@ public class GenerateMatchers {
 		ArgParser ap = new ArgParser(args);
 
 		if (args.length == 0 || ap.containsKey("help")){
-			System.out.println("Usage (default values in capitals): generate.jar [--taxonomy <taxonomy data file> [--examine <species>] [--report <report interval>]]|[--loadArray <file>]|[--loadRArray <file>] [--multiJoin <num>] [--minimize] [--storeArray <file>] [--storeRArray <file>] [--threads <number of threads>]");
+			System.out.println("Usage (default values in capitals): generate.jar [--taxonomy <taxonomy data file> [--examine <species>] [--report <report interval>]]|[--loadArray <file>]|[--loadRArray <file>] [--multiJoin <num>] [--minimize] [--storeArray <file>] [--storeRArray <file> [--mapped]] [--threads <number of threads>]");
 			System.exit(0);
 		}
 
 		Logger logger = Loggers.getDefaultLogger(ap);
 
+		if (ap.containsKey("loadRArray")){
+			try {
+				if (uk.ac.man.entitytagger.matching.matchers.AutomatonMatcher.isMapped(ap.getFile("loadRArray"))){
+					System.err.println("File " + ap.get("loadRArray") + " is stored in the mapped format (--mapped), which can only be loaded for matching; use --loadArray, or regenerate the automatons from the dictionary");
+					System.exit(-1);
+				}
+			} catch (Exception e){
+				System.err.println(e);
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
 		int numThreads = ap.containsKey("threads") ? ap.getInt("threads") : 1;
 		int report = ap.getInt("report", -1);
 
@@ -190,7 +203,7 @@ public class GenerateMatchers {
 		}
 
 		if (ap.containsKey("storeRArray")){
-			GenerateAutomatons.storeRArray(automatons.getA(), automatons.getB(), ap.containsKey("tableize"), ap.getFile("storeRArray"),logger);
+			GenerateAutomatons.storeRArray(automatons.getA(), automatons.getB(), ap.containsKey("tableize"), ap.containsKey("mapped"), ap.getFile("storeRArray"),logger);
 		}
 	}
 
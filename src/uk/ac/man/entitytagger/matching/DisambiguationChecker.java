@@ -0,0 +1,192 @@
+package uk.ac.man.entitytagger.matching;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.matching.Matcher.Disambiguation;
+
+/**
+ * Checks Matcher.disambiguate() against the original implementation (comparing all pairs of mentions and removing from the
+ * list in place, kept here as reference()) on randomized lists of mentions, for all disambiguation modes. The mentions
+ * have random (often overlapping) coordinates, ids (often ambiguous, from a small set of ids), texts and document ids.
+ * Usage: DisambiguationChecker [number of cases] [seed]
+ * @author Martin
+ */
+public class DisambiguationChecker {
+	private static final String[] IDS = {"species:1", "species:2", "species:3", "species:4", "species:5", "species:6"};
+	private static final String[] TEXTS = {"mice", "nude mice", "rat", "human", "man"};
+	private static final String[] DOCIDS = {null, "doc1", "doc2"};
+
+	/**
+	 * The original Matcher.disambiguate()
+	 */
+	static List<Mention> reference(String text, List<Mention> matches, Disambiguation mode){
+		if (mode == Disambiguation.OFF || matches == null || matches.size() == 0)
+			return matches;
+
+		List<Mention> res = new ArrayList<Mention>(matches);
+
+		//if several matches are overlapping, remove any matches that are smaller than the others
+		//(only preserve the ones with maximum length, which are very likely to be the correct hits, e.g. "mice" - "nude mice")
+		for (int i = 0; i < res.size(); i++){
+			Mention m1 = res.get(i);
+			int s1 = m1.getStart();
+			int e1 = m1.getEnd();
+
+			for (int j = i+1; j < res.size(); j++){
+				Mention m2 = res.get(j);
+
+				int s2 = m2.getStart();
+				int e2 = m2.getEnd();
+
+				if (Mention.overlaps(m1, m2)){
+					if (e2-s2 < e1-s1){
+						res.remove(j);
+						j--;
+					} else if (e1-s1 < e2-s2){
+						res.remove(i);
+						i--;
+						break;
+					}
+				}
+			}
+		}
+
+		if (mode == Disambiguation.ON_LONGEST_ONLY)
+			return res;
+
+		boolean isClear[] = new boolean[res.size()];
+
+		//determine which matches are overlapping and which are "clear" matches
+		for (int i = 0; i < isClear.length; i++)
+			isClear[i] = !res.get(i).isAmbigous();
+
+		for (int i = 0; i < isClear.length; i++){
+			Mention m1 = res.get(i);
+
+			//determine if m1 overlaps with anything
+			for (int j = i+1; j < res.size(); j++){
+				Mention m2 = res.get(j);
+
+				if (Mention.overlaps(m1, m2)){
+					isClear[i] = false;
+					isClear[j] = false;
+				}
+			}
+		}
+
+		//disambiguate by finding clear matches in the document for ambiguous mentions
+		for (int i = 0; i < res.size(); i++){
+			Mention m1 = res.get(i);
+			//if m1 does overlap
+			if (m1 != null && !isClear[i]){
+				int s1 = m1.getStart();
+
+				for (int j = 0; j < res.size(); j++){
+					Mention m2 = res.get(j);
+
+					//find match which does not overlap, has same species, and ((is located earlier) or (located anywhere if we are looking at the whole document))
+					if (m2 != null && (m2.getStart() < s1 || mode == Disambiguation.ON_WHOLE) && m1.containsID(m2.getIds()[0]) && isClear[j]){
+						isClear[i] = true;
+						String id = m2.getIds()[0];
+						m1.disambiguate(id);
+
+						//explicit match is found, so remove any matches that overlap with m1
+						for (int k = 0; k < res.size(); k++){
+							if (res.get(k) != null && Mention.overlaps(m1, res.get(k)) && k != i)
+								res.set(k,null);
+
+							//test mode
+							if (res.get(k) != null && mode == Disambiguation.ON_EARLIER && m1.getText().equals(res.get(k).getText()) && res.get(k).containsID(id)){
+								res.get(k).disambiguate(id);
+								isClear[k] = true;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < res.size(); i++)
+			if (res.get(i) == null)
+				res.remove(i--);
+
+		return res;
+	}
+
+	private static List<Mention> randomMentions(Random r){
+		int n = r.nextInt(40);
+		int length = 10 + r.nextInt(200);
+		//a few documents use sorted coordinates, as matchers usually return them
+		boolean sorted = r.nextBoolean();
+
+		List<Mention> res = new ArrayList<Mention>(n);
+		int start = 0;
+		for (int i = 0; i < n; i++){
+			int s = sorted ? (start += r.nextInt(6)) : r.nextInt(length);
+			int e = s + 1 + r.nextInt(12);
+
+			String[] ids = new String[1 + (r.nextInt(3) == 0 ? r.nextInt(3) : 0)];
+			for (int j = 0; j < ids.length; j++)
+				ids[j] = IDS[r.nextInt(IDS.length)];
+
+			Mention m = new Mention(ids, s, e, TEXTS[r.nextInt(TEXTS.length)]);
+			m.setDocid(DOCIDS[r.nextInt(4) == 0 ? r.nextInt(DOCIDS.length) : 1]);
+			res.add(m);
+		}
+
+		return res;
+	}
+
+	/**
+	 * @return the result as the input positions and ids of the returned mentions
+	 */
+	private static String describe(List<Mention> input, List<Mention> output){
+		Map<Mention,Integer> positions = new IdentityHashMap<Mention,Integer>();
+		for (int i = 0; i < input.size(); i++)
+			positions.put(input.get(i), i);
+
+		StringBuffer sb = new StringBuffer();
+		for (Mention m : output)
+			sb.append(positions.get(m)).append(':').append(m.getIdsToString()).append(' ');
+		return sb.toString();
+	}
+
+	public static void main(String[] args){
+		int numCases = args.length > 0 ? Integer.parseInt(args[0]) : 30000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+		Random r = new Random(seed);
+		int numDifferent = 0;
+
+		for (int c = 0; c < numCases; c++){
+			List<Mention> mentions = randomMentions(r);
+
+			for (Disambiguation mode : Disambiguation.values()){
+				//both implementations disambiguate the mentions in place, so each is given its own copies
+				List<Mention> expectedInput = new ArrayList<Mention>(mentions.size());
+				List<Mention> actualInput = new ArrayList<Mention>(mentions.size());
+				for (Mention m : mentions){
+					expectedInput.add(m.clone());
+					actualInput.add(m.clone());
+				}
+
+				String expected = describe(expectedInput, reference(null, expectedInput, mode));
+				String actual = describe(actualInput, Matcher.disambiguate(null, actualInput, mode));
+
+				if (!expected.equals(actual)){
+					if (numDifferent < 10)
+						System.out.println("Case " + c + ", " + mode + ":\n  reference: " + expected + "\n  actual:    " + actual);
+					numDifferent++;
+				}
+			}
+		}
+
+		System.out.println(numCases + " cases, " + numDifferent + " with different results.");
+		System.exit(numDifferent == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,110 @@
+package uk.ac.man.entitytagger.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import martin.common.Pair;
+import martin.common.SentenceSplitter;
+
+import uk.ac.man.documentparser.dataholders.Document;
+
+/**
+ * Holds the text of a document together with views of it that several matchers need (the lower-cased text, token locations
+ * and sentence boundaries). The views are computed when first requested and then reused, so that when an analysis is passed
+ * through a chain of matchers (see Matcher.match(DocumentAnalysis)), each view is computed at most once per document.
+ * The views can be requested concurrently (e.g. by matchers running in parallel over the same document).
+ * @author Martin
+ */
+public class DocumentAnalysis {
+	private static final Pattern WORD_BOUNDARY = Pattern.compile("\\b");
+
+	private String text;
+	private Document doc;
+
+	private String lowerCaseText = null;
+	private List<Pair<Integer>> tokens = null;
+	private List<Pair<Integer>> lowerCaseTokens = null;
+	private List<Pair<Integer>> sentences = null;
+
+	/**
+	 * @param text the text to match
+	 * @param doc the document associated to the text, may be null
+	 */
+	public DocumentAnalysis(String text, Document doc){
+		this.text = text;
+		this.doc = doc;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return the document associated to the text (may be null)
+	 */
+	public Document getDocument() {
+		return doc;
+	}
+
+	/**
+	 * @param ignoreCase whether to return the lower-cased text
+	 * @return the text, lower-cased if ignoreCase is set
+	 */
+	public String getText(boolean ignoreCase){
+		return ignoreCase ? getLowerCaseText() : text;
+	}
+
+	public synchronized String getLowerCaseText(){
+		if (lowerCaseText == null)
+			lowerCaseText = text.toLowerCase();
+		return lowerCaseText;
+	}
+
+	/**
+	 * @param ignoreCase whether the token locations should refer to the lower-cased text
+	 * @return the start and end coordinates of the words (runs of characters between two word boundaries, starting with a letter or digit) of the text
+	 */
+	public synchronized List<Pair<Integer>> getTokenLocations(boolean ignoreCase){
+		if (ignoreCase){
+			if (lowerCaseTokens == null)
+				lowerCaseTokens = tokenize(getLowerCaseText());
+			return lowerCaseTokens;
+		} else {
+			if (tokens == null)
+				tokens = tokenize(text);
+			return tokens;
+		}
+	}
+
+	private static List<Pair<Integer>> tokenize(String text){
+		java.util.regex.Matcher splitter = WORD_BOUNDARY.matcher(text);
+
+		List<Pair<Integer>> tokenLocations = new ArrayList<Pair<Integer>>();
+
+		int prev = -1;
+		while (splitter.find()){
+			if (prev != -1 && Character.isLetterOrDigit(text.charAt(prev))){
+				tokenLocations.add(new Pair<Integer>(prev, splitter.start()));
+			}
+
+			prev = splitter.start();
+		}
+
+		return Collections.unmodifiableList(tokenLocations);
+	}
+
+	/**
+	 * @return the start and end coordinates of the sentences of the text
+	 */
+	public synchronized List<Pair<Integer>> getSentences(){
+		if (sentences == null){
+			List<Pair<Integer>> res = new ArrayList<Pair<Integer>>();
+			for (Pair<Integer> sc : new SentenceSplitter(text))
+				res.add(sc);
+			sentences = Collections.unmodifiableList(res);
+		}
+		return sentences;
+	}
+}
@@ -7,13 +7,18 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
+import martin.common.FlatteningIterator;
 import martin.common.Function;
 import martin.common.Misc;
 import martin.common.Pair;
 import martin.common.compthreads.IteratorBasedMaster;
+import martin.common.compthreads.Problem;
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.documentparser.input.DocumentIterator;
 import uk.ac.man.entitytagger.Mention;
@@ -23,40 +28,166 @@ import uk.ac.man.entitytagger.matching.matchers.ConcurrentMatcher;
 
 public class MatchOperations {
 
-	public static void run(Matcher matcher, DocumentIterator documents, int numThreads, int report, File outDir, Logger logger){
+	/**
+	 * Starts matching the documents on numThreads threads, and returns the tagged documents as they become available.
+	 * Documents are handed to the threads in batches (see ConcurrentMatcher.batches()), so that short documents do not
+	 * each pay the cost of being scheduled separately.
+	 * @param ordered whether the tagged documents should be returned in input order (if false, they are returned as soon as they have been matched)
+	 * @return an iterator over the tagged documents (null for documents that were null)
+	 */
+	public static FlatteningIterator<TaggedDocument> matchConcurrently(Matcher matcher, DocumentIterator documents, int numThreads, boolean ordered){
+		return new FlatteningIterator<TaggedDocument>(startMatching(matcher, documents, numThreads, ordered, null));
+	}
+
+	/**
+	 * Starts matching the documents on numThreads threads, in batches (see matchConcurrently()).
+	 * @param ordered whether the batches should be returned in input order
+	 * @param maxInFlightBytes budget for the estimated size of matched documents that have not yet been retrieved from the master
+	 * (see TaggedDocument.sizeof()), or, for the run methods with a write stage, that have not yet been written. No new documents are matched
+	 * while the budget is exceeded. If null, only the number of batches is limited.
+	 * @return the master, which returns batches of tagged documents (use a FlatteningIterator to iterate over the documents)
+	 */
+	public static IteratorBasedMaster<List<TaggedDocument>> startMatching(Matcher matcher, DocumentIterator documents, int numThreads, boolean ordered, Long maxInFlightBytes){
 		ConcurrentMatcher tm = new ConcurrentMatcher(matcher,documents);
-		IteratorBasedMaster<TaggedDocument> master = new IteratorBasedMaster<TaggedDocument>(tm,numThreads);
-		new Thread(master).start();
+		IteratorBasedMaster<List<TaggedDocument>> master = new IteratorBasedMaster<List<TaggedDocument>>(tm.batches(),numThreads,null,ordered);
+		master.setMaxBufferedBytes(maxInFlightBytes);
+		master.startThread();
+		return master;
+	}
 
-		int numNullDocuments = 0;
+	/**
+	 * @return a description of how much the master currently is holding, for progress reports
+	 */
+	public static String getBufferStatus(IteratorBasedMaster<?> master){
+		return " (in flight: " + master.getNumBuffered() + " batches, " + (master.getBufferedBytes() / (1024*1024)) + " MB)";
+	}
 
-		try{
+	/**
+	 * Converts tagged documents to the strings that should be written for them on writeThreads threads, keeping the order of the documents,
+	 * so that only the actual writing is left to the calling thread. If writeThreads <= 1, documents are instead converted as they are requested.
+	 * The documents stay in the byte budget of the matching master until the strings for them have been returned, so that documents
+	 * waiting in the write stage (e.g. behind a slow writer) are also limited by the budget.
+	 * @param serializer function that is given a TaggedDocument as its only argument, and returns the string to write for it
+	 * @param matching the master that the documents come from (see startMatching())
+	 */
+	private static Iterator<String> serializeConcurrently(final Iterator<TaggedDocument> tagged, final Function<String> serializer, int writeThreads, final IteratorBasedMaster<?> matching){
+		matching.setReleaseOnRetrieval(false);
+
+		//the sizes of the documents that have been taken from the matching master, in the order that their strings will be returned
+		final Queue<Long> sizes = new ConcurrentLinkedQueue<Long>();
+
+		final Iterator<Problem<String>> problems = new Iterator<Problem<String>>(){
+			public boolean hasNext() {
+				return tagged.hasNext();
+			}
+			public Problem<String> next() {
+				final TaggedDocument td = tagged.next();
+				sizes.add(td != null ? td.sizeof() : 0L);
+				return new Problem<String>(){
+					public String compute() {
+						return serializer.function(new Object[]{td});
+					}
+				};
+			}
+			public void remove() {
+				throw new IllegalStateException("Not implemented.");
+			}
+		};
 
-			int counter = 0; 
+		final Iterator<String> strings;
 
-			while (master.hasNext()){
-				TaggedDocument td = master.next();
-				if (td != null){
+		if (writeThreads <= 1){
+			strings = new Iterator<String>(){
+				public boolean hasNext() {
+					return problems.hasNext();
+				}
+				public String next() {
+					return problems.next().compute();
+				}
+				public void remove() {
+					throw new IllegalStateException("Not implemented.");
+				}
+			};
+		} else {
+			IteratorBasedMaster<String> master = new IteratorBasedMaster<String>(problems, writeThreads);
+			master.startThread();
+			strings = master;
+		}
 
-					String id = td.getOriginal().getID();
+		return new Iterator<String>(){
+			public boolean hasNext() {
+				return strings.hasNext();
+			}
+			public String next() {
+				String str = strings.next();
+				matching.releaseBytes(sizes.poll());
+				return str;
+			}
+			public void remove() {
+				throw new IllegalStateException("Not implemented.");
+			}
+		};
+	}
 
-					ArrayList<Mention> matches = td.getAllMatches();
-					Mention.saveToFile(matches, new File(outDir,id+".tags"));
-					/*BufferedWriter outStream = new BufferedWriter(new FileWriter(new File(outDir,id+".tags")));
-					outStream.write("#species,document,start,end,text,extra\n");
+	public static void run(Matcher matcher, DocumentIterator documents, int numThreads, int report, File outDir, Logger logger){
+		run(matcher, documents, numThreads, report, outDir, logger, true);
+	}
 
-					ArrayList<Match> matches = td.getAllMatches();
-					for (int i = 0; i < matches.size(); i++){
-						outStream.write(matches.get(i).toString() + "\n");
-					}
+	/**
+	 * Matches the documents and saves the mentions of each document to a separate file in outDir.
+	 * @param ordered whether documents should be processed in input order (if false, they are saved as soon as they have been matched)
+	 */
+	public static void run(Matcher matcher, DocumentIterator documents, int numThreads, int report, File outDir, Logger logger, boolean ordered){
+		run(matcher, documents, numThreads, report, outDir, logger, ordered, 1, null);
+	}
 
-					outStream.close();*/
-				} else {
-					numNullDocuments++;
+	/**
+	 * Matches the documents and saves the mentions of each document to a separate file in outDir.
+	 * @param ordered whether documents should be processed in input order (if false, they are saved as soon as they have been matched)
+	 * @param writeThreads the number of threads that the output files are written on
+	 * @param maxInFlightBytes budget for matched documents waiting to be written (see startMatching(); null for no budget)
+	 */
+	public static void run(Matcher matcher, DocumentIterator documents, int numThreads, int report, final File outDir, Logger logger, boolean ordered, int writeThreads, Long maxInFlightBytes){
+		IteratorBasedMaster<List<TaggedDocument>> master = startMatching(matcher, documents, numThreads, ordered, maxInFlightBytes);
+
+		//the files are written by the serializer, so that they can be written concurrently
+		Iterator<String> output = serializeConcurrently(new FlatteningIterator<TaggedDocument>(master), new Function<String>(){
+			public String function(Object[] args) {
+				TaggedDocument td = (TaggedDocument) args[0];
+				if (td == null)
+					return null;
+
+				String id = td.getOriginal().getID();
+
+				ArrayList<Mention> matches = td.getAllMatches();
+				Mention.saveToFile(matches, new File(outDir,id+".tags"));
+
+				/*BufferedWriter outStream = new BufferedWriter(new FileWriter(new File(outDir,id+".tags")));
+				outStream.write("#species,document,start,end,text,extra\n");
+
+				ArrayList<Match> matches = td.getAllMatches();
+				for (int i = 0; i < matches.size(); i++){
+					outStream.write(matches.get(i).toString() + "\n");
 				}
 
+				outStream.close();*/
+
+				return "";
+			}
+		}, writeThreads, master);
+
+		int numNullDocuments = 0;
+
+		try{
+
+			int counter = 0; 
+
+			while (output.hasNext()){
+				if (output.next() == null)
+					numNullDocuments++;
+
 				if (report != -1 && ++counter % report == 0)
-					logger.info("%t: Tagged " + counter + " documents.\n");
+					logger.info("%t: Tagged " + counter + " documents" + getBufferStatus(master) + ".\n");
 			}
 		} catch (Exception e){
 			System.err.println(e);
@@ -70,9 +201,25 @@ public class MatchOperations {
 	}
 
 	public static void runDB(Matcher matcher, DocumentIterator documents, int numThreads, String table, int report, Logger logger, Connection dbConn){
-		ConcurrentMatcher tm = new ConcurrentMatcher(matcher,documents);
-		IteratorBasedMaster<TaggedDocument> master = new IteratorBasedMaster<TaggedDocument>(tm,numThreads);
-		new Thread(master).start();
+		runDB(matcher, documents, numThreads, table, report, logger, dbConn, true);
+	}
+
+	/**
+	 * Matches the documents and saves the mentions to a database table.
+	 * @param ordered whether documents should be processed in input order (if false, they are saved as soon as they have been matched)
+	 */
+	public static void runDB(Matcher matcher, DocumentIterator documents, int numThreads, String table, int report, Logger logger, Connection dbConn, boolean ordered){
+		runDB(matcher, documents, numThreads, table, report, logger, dbConn, ordered, null);
+	}
+
+	/**
+	 * Matches the documents and saves the mentions to a database table.
+	 * @param ordered whether documents should be processed in input order (if false, they are saved as soon as they have been matched)
+	 * @param maxInFlightBytes budget for matched documents waiting to be saved (see startMatching(); null for no budget)
+	 */
+	public static void runDB(Matcher matcher, DocumentIterator documents, int numThreads, String table, int report, Logger logger, Connection dbConn, boolean ordered, Long maxInFlightBytes){
+		IteratorBasedMaster<List<TaggedDocument>> master = startMatching(matcher, documents, numThreads, ordered, maxInFlightBytes);
+		Iterator<TaggedDocument> tagged = new FlatteningIterator<TaggedDocument>(master);
 
 		int numNullDocuments = 0;
 
@@ -83,8 +230,8 @@ public class MatchOperations {
 			PreparedStatement pstmt_id = dbConn.prepareStatement("INSERT INTO " + table + "ids (id_match, id_entity, probability) VALUES (?,?,?)", Statement.NO_GENERATED_KEYS);
 			int counter = 0; 
 
-			while (master.hasNext()){
-				TaggedDocument td = master.next();
+			while (tagged.hasNext()){
+				TaggedDocument td = tagged.next();
 				ArrayList<Mention> matches = td.getAllMatches();
 				if (matches != null){
 					for (Mention m : matches){
@@ -96,7 +243,7 @@ public class MatchOperations {
 				}
 
 				if (report != -1 && ++counter % report == 0)
-					logger.info("%t: Tagged " + counter + " documents.\n");
+					logger.info("%t: Tagged " + counter + " documents" + getBufferStatus(master) + ".\n");
 			}
 
 			pstmt_match.close();
@@ -121,10 +268,36 @@ public class MatchOperations {
 	}
 
 	public static void runHTML(Matcher matcher, DocumentIterator documents, int numThreads, File htmlFile, int report, Logger logger, Format format, boolean link, Function<Pair<String>> alternativeTagFunction) {
+		runHTML(matcher, documents, numThreads, htmlFile, report, logger, format, link, alternativeTagFunction, 1, null);
+	}
 
-		ConcurrentMatcher tm = new ConcurrentMatcher(matcher,documents);
-		IteratorBasedMaster<TaggedDocument> master = new IteratorBasedMaster<TaggedDocument>(tm,numThreads);
-		new Thread(master).start();
+	/**
+	 * Matches the documents and saves them, with their mentions marked up, to a single HTML or XML file.
+	 * @param writeThreads the number of threads that the HTML/XML of documents is generated on (the file itself is written by the calling thread)
+	 * @param maxInFlightBytes budget for matched documents waiting to be written (see startMatching(); null for no budget)
+	 */
+	public static void runHTML(Matcher matcher, DocumentIterator documents, int numThreads, File htmlFile, int report, Logger logger, final Format format, final boolean link, final Function<Pair<String>> alternativeTagFunction, int writeThreads, Long maxInFlightBytes) {
+
+		IteratorBasedMaster<List<TaggedDocument>> master = startMatching(matcher, documents, numThreads, true, maxInFlightBytes);
+
+		Iterator<String> output = serializeConcurrently(new FlatteningIterator<TaggedDocument>(master), new Function<String>(){
+			public String function(Object[] args) {
+				TaggedDocument td = (TaggedDocument) args[0];
+				if (td == null)
+					return null;
+
+				if (format == Format.HTML){
+					String str = td.toHTML(link, alternativeTagFunction).toString();
+					str = str.replace("\n", "<br>");
+
+					return "<b>" + td.getOriginal().getID() + "</b><br>\n" + str + "<p><hr><p>";
+				} else if (format == Format.XMLTags){
+					return TaggedDocument.toHTML(td.getContent(), td.getRawMatches(), Format.XMLTags, link, alternativeTagFunction).toString();
+				} else {
+					throw new IllegalStateException("should not have reached this stage");
+				}
+			}
+		}, writeThreads, master);
 
 		int numNullDocuments = 0;
 
@@ -138,32 +311,18 @@ public class MatchOperations {
 
 			int counter = 0;
 
-			while (master.hasNext()){
-				TaggedDocument td = master.next();
+			while (output.hasNext()){
+				String str = output.next();
 
-				if (td != null){
-					if (format == Format.HTML){
-						outStream.write("<b>" + td.getOriginal().getID() + "</b><br>\n");
-
-						String str = td.toHTML(link, alternativeTagFunction).toString();
-						str = str.replace("\n", "<br>");
-
-						outStream.write(str);
-						outStream.flush();
-
-						outStream.write("<p><hr><p>");
-					} else if (format == Format.XMLTags){
-						outStream.write(TaggedDocument.toHTML(td.getContent(), td.getRawMatches(), Format.XMLTags, link, alternativeTagFunction).toString());
-						outStream.flush();
-					} else {
-						throw new IllegalStateException("should not have reached this stage");
-					}
+				if (str != null){
+					outStream.write(str);
+					outStream.flush();
 				} else {
 					numNullDocuments++;
 				}
 
 				if (report != -1 && ++counter % report == 0)
-					logger.info("%t: Tagged " + counter + " documents.\n");
+					logger.info("%t: Tagged " + counter + " documents" + getBufferStatus(master) + ".\n");
 			}
 
 			if (format == Format.HTML)
@@ -184,9 +343,42 @@ public class MatchOperations {
 	}
 
 	public static void runToFile(Matcher matcher, DocumentIterator documents, int numThreads, int report, File outFile, Logger logger){
-		ConcurrentMatcher tm = new ConcurrentMatcher(matcher,documents);
-		IteratorBasedMaster<TaggedDocument> master = new IteratorBasedMaster<TaggedDocument>(tm,numThreads);
-		new Thread(master).start();
+		runToFile(matcher, documents, numThreads, report, outFile, logger, true);
+	}
+
+	/**
+	 * Matches the documents and saves all mentions to a single file. Each line contains the id of the document that the mention was found in.
+	 * @param ordered whether documents should be written in input order (if false, they are written as soon as they have been matched)
+	 */
+	public static void runToFile(Matcher matcher, DocumentIterator documents, int numThreads, int report, File outFile, Logger logger, boolean ordered){
+		runToFile(matcher, documents, numThreads, report, outFile, logger, ordered, 1, null);
+	}
+
+	/**
+	 * Matches the documents and saves all mentions to a single file. Each line contains the id of the document that the mention was found in.
+	 * @param ordered whether documents should be written in input order (if false, they are written as soon as they have been matched)
+	 * @param writeThreads the number of threads that the output lines are formatted on (the file itself is written by the calling thread)
+	 * @param maxInFlightBytes budget for matched documents waiting to be written (see startMatching(); null for no budget)
+	 */
+	public static void runToFile(Matcher matcher, DocumentIterator documents, int numThreads, int report, File outFile, final Logger logger, boolean ordered, int writeThreads, Long maxInFlightBytes){
+		IteratorBasedMaster<List<TaggedDocument>> master = startMatching(matcher, documents, numThreads, ordered, maxInFlightBytes);
+
+		Iterator<String> output = serializeConcurrently(new FlatteningIterator<TaggedDocument>(master), new Function<String>(){
+			public String function(Object[] args) {
+				TaggedDocument td = (TaggedDocument) args[0];
+				ArrayList<Mention> matches = td.getAllMatches();
+				if (matches == null){
+					logger.warning("null document," + td.getOriginal().getID() + "\n");
+					return null;
+				}
+
+				matches = Misc.sort(matches);
+				StringBuffer sb = new StringBuffer();
+				for (int i = 0; i < matches.size(); i++)
+					sb.append(matches.get(i).toString()+ "\n");
+				return sb.toString();
+			}
+		}, writeThreads, master);
 
 		int numNullDocuments = 0;
 
@@ -199,21 +391,16 @@ public class MatchOperations {
 
 			int counter = 0; 
 
-			while (master.hasNext()){
-				TaggedDocument td = master.next();
-				ArrayList<Mention> matches = td.getAllMatches();
-				if (matches != null){
-					matches = Misc.sort(matches);
-					for (int i = 0; i < matches.size(); i++){
-						outStream.write(matches.get(i).toString()+ "\n");
-					}
+			while (output.hasNext()){
+				String str = output.next();
+				if (str != null){
+					outStream.write(str);
 				} else {
 					numNullDocuments++;
-					logger.warning("null document," + td.getOriginal().getID() + "\n");
 				}
 
 				if (report != -1 && ++counter % report == 0)
-					logger.info("%t: Tagged " + counter + " documents.\n");
+					logger.info("%t: Tagged " + counter + " documents" + getBufferStatus(master) + ".\n");
 
 				outStream.flush();
 			}
@@ -237,6 +424,36 @@ public class MatchOperations {
 
 		List<Mention> matches = matcher.match(rawText, doc);
 
+		return toTaggedDocument(doc, rawText, matches);
+	}
+
+	/**
+	 * Matches a batch of documents through a single call to Matcher.matchAll(), allowing the matcher to optimize across the batch.
+	 * @param matcher
+	 * @param docs the documents (may contain nulls, which give null results)
+	 * @return the tagged documents, in the same order as the documents
+	 */
+	public static List<TaggedDocument> matchDocuments(Matcher matcher, List<Document> docs){
+		List<Document> nonNull = new ArrayList<Document>(docs.size());
+		for (Document doc : docs)
+			if (doc != null)
+				nonNull.add(doc);
+
+		List<List<Mention>> matches = nonNull.size() > 0 ? matcher.matchAll(nonNull) : new ArrayList<List<Mention>>();
+
+		List<TaggedDocument> res = new ArrayList<TaggedDocument>(docs.size());
+		int i = 0;
+		for (Document doc : docs){
+			if (doc != null)
+				res.add(toTaggedDocument(doc, doc.toString(), matches.get(i++)));
+			else
+				res.add(null);
+		}
+
+		return res;
+	}
+
+	private static TaggedDocument toTaggedDocument(Document doc, String rawText, List<Mention> matches){
 		if (matches == null)
 			return new TaggedDocument(doc,null,null,matches,rawText);
 
@@ -294,22 +511,29 @@ public class MatchOperations {
 	public static void runOutWithContext(Matcher matcher,
 			DocumentIterator documents, int numThreads, int report,
 			File file, Logger logger, int preLength, int postLength) {
+		runOutWithContext(matcher, documents, numThreads, report, file, logger, preLength, postLength, 1, null);
+	}
 
-		ConcurrentMatcher cMatcher = new ConcurrentMatcher(matcher, documents);
-		IteratorBasedMaster<TaggedDocument> master = new IteratorBasedMaster<TaggedDocument>(cMatcher, numThreads);
-		master.startThread();
+	/**
+	 * Matches the documents and saves all mentions to a single file, together with the text directly surrounding them.
+	 * @param writeThreads the number of threads that the output lines are formatted on (the file itself is written by the calling thread)
+	 * @param maxInFlightBytes budget for matched documents waiting to be written (see startMatching(); null for no budget)
+	 */
+	public static void runOutWithContext(Matcher matcher,
+			DocumentIterator documents, int numThreads, int report,
+			File file, Logger logger, final int preLength, final int postLength, int writeThreads, Long maxInFlightBytes) {
 
-		int c = 0;
+		IteratorBasedMaster<List<TaggedDocument>> master = startMatching(matcher, documents, numThreads, true, maxInFlightBytes);
 
-		try{
-			BufferedWriter outStream = new BufferedWriter(new FileWriter(file));
-			outStream.write("#entity\tdocument\tstart\tend\ttext\tcomment\tpre\tpost\n");
-			logger.info("%t: Tagging...\n");
-			for (TaggedDocument td : master){
+		Iterator<String> output = serializeConcurrently(new FlatteningIterator<TaggedDocument>(master), new Function<String>(){
+			public String function(Object[] args) {
+				TaggedDocument td = (TaggedDocument) args[0];
 				Document d = td.getOriginal();
 				String text = d.toString();
 				List<Mention> matches = td.getAllMatches();
 
+				StringBuffer sb = new StringBuffer();
+
 				for (Mention m : matches){
 					int s = m.getStart();
 					int e = m.getEnd();
@@ -318,13 +542,26 @@ public class MatchOperations {
 					//String term = text.substring(Math.max(0,s),Math.min(text.length(), e));
 					String post = text.substring(Math.max(0,e), Math.min(text.length(), e+postLength)).replace('\n', ' ').replace('\r',' ');
 
-					outStream.write(m.toString() + "\t" + pre + "\t" + post + "\n");
+					sb.append(m.toString() + "\t" + pre + "\t" + post + "\n");
 				}
 
+				return sb.toString();
+			}
+		}, writeThreads, master);
+
+		int c = 0;
+
+		try{
+			BufferedWriter outStream = new BufferedWriter(new FileWriter(file));
+			outStream.write("#entity\tdocument\tstart\tend\ttext\tcomment\tpre\tpost\n");
+			logger.info("%t: Tagging...\n");
+			while (output.hasNext()){
+				outStream.write(output.next());
+
 				outStream.flush();
 
 				if (report != -1 && ++c % report == 0)
-					logger.info("%t: Processed " + c + " documents.\n");
+					logger.info("%t: Processed " + c + " documents" + getBufferStatus(master) + ".\n");
 			}	
 			logger.info("%t: Completed.");
 			outStream.close();
@@ -1,14 +1,19 @@
 package uk.ac.man.entitytagger.matching;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
-import martin.common.Tuple;
+import martin.common.AhoCorasick;
+import martin.common.Pair;
 
 
 import uk.ac.man.documentparser.dataholders.Document;
@@ -35,15 +40,101 @@ public abstract class Matcher {
 	 */
 	public abstract List<Mention> match(String text, Document doc);
 
+	/**
+	 * Search the text of an analysis for mentions. Matchers that use the views of the text held by the analysis, or that pass
+	 * the text on to other matchers, override this so that the views are only computed once per document.
+	 * @param analysis the text and document to match, and their derived views
+	 * @return the mentions found by the matcher in the text
+	 */
+	public List<Mention> match(DocumentAnalysis analysis){
+		return match(analysis.getText(), analysis.getDocument());
+	}
+
+	/**
+	 * Search a batch of documents for mentions, matching the text given by their toString() methods.
+	 * @param docs the documents
+	 * @return the mentions found in each document, in the same order as the documents
+	 */
+	public List<List<Mention>> matchAll(List<Document> docs){
+		List<DocumentAnalysis> analyses = new ArrayList<DocumentAnalysis>(docs.size());
+		for (Document d : docs)
+			analyses.add(new DocumentAnalysis(d.toString(), d));
+		return matchBatch(analyses);
+	}
+
+	/**
+	 * Search a batch of texts for mentions. By default the texts are matched one at a time, but matchers that can handle
+	 * several texts more efficiently together (e.g. through a single database query) override this, as do matchers that
+	 * pass the texts on to other matchers (so that the batch reaches the matchers that can make use of it).
+	 * @param analyses the texts and documents to match
+	 * @return the mentions found in each text, in the same order as the analyses
+	 */
+	public List<List<Mention>> matchBatch(List<DocumentAnalysis> analyses){
+		List<List<Mention>> res = new ArrayList<List<Mention>>(analyses.size());
+		for (DocumentAnalysis analysis : analyses)
+			res.add(match(analysis));
+		return res;
+	}
+
+	/**
+	 * Search the text of an analysis for mentions, returning them in columnar form. By default the mentions found by
+	 * match(DocumentAnalysis) are copied into a buffer, but matchers producing large numbers of raw matches override this so
+	 * that the matches can be post-processed without first creating a Mention for each of them.
+	 * @param analysis the text and document to match
+	 * @return the mentions found by the matcher in the text
+	 */
+	public MentionBuffer matchBuffer(DocumentAnalysis analysis){
+		return toBuffer(analysis, match(analysis));
+	}
+
+	/**
+	 * Search a batch of texts for mentions, returning them in columnar form (see matchBuffer(DocumentAnalysis)). By default
+	 * the mentions found by matchBatch() are copied into buffers.
+	 * @param analyses the texts and documents to match
+	 * @return the mentions found in each text, in the same order as the analyses
+	 */
+	public List<MentionBuffer> matchBufferBatch(List<DocumentAnalysis> analyses){
+		List<List<Mention>> matches = matchBatch(analyses);
+		List<MentionBuffer> res = new ArrayList<MentionBuffer>(analyses.size());
+		for (int i = 0; i < analyses.size(); i++)
+			res.add(toBuffer(analyses.get(i), matches.get(i)));
+		return res;
+	}
+
+	private static MentionBuffer toBuffer(DocumentAnalysis analysis, List<Mention> matches){
+		Document doc = analysis.getDocument();
+		return new MentionBuffer(analysis.getText(), doc != null ? doc.getID() : null, matches);
+	}
+
 
 	public int size() {
 		throw new IllegalStateException("Matcher.size() is not implemented");
 	}
 
+	/**
+	 * @return whether the matches are looked up by the id of the document rather than found in the text that is passed (in
+	 * which case their coordinates refer to the full document, whatever text is passed). Such matchers cannot be run on
+	 * excerpts of a document (e.g. the trigger sentences of ExpressionMatcher.setTriggerFirst()).
+	 */
+	public boolean isDocumentKeyed(){
+		return false;
+	}
+
 	protected static boolean isValidMatch(String text, Mention match){
-		int s = match.getStart();
-		int e = match.getEnd();
+		return isValidMatch(text, match.getStart(), match.getEnd());
+	}
 
+	/**
+	 * @return whether the match at [s, e) is delimited by non-alphanumeric characters (or the start and end of the text)
+	 */
+	protected static boolean isValidMatch(String text, int s, int e){
+		return isValidStart(text, s) && isValidEnd(text, e);
+	}
+
+	/**
+	 * @return whether a match may start at s, i.e. whether s is preceded by a non-alphanumeric character (or the start of the text)
+	 */
+	protected static boolean isValidStart(String text, int s){
 		if (s > 0){
 			char c = text.charAt(s-1);
 			if (Character.isLetterOrDigit(c) && c != '>' && c != '<'){
@@ -51,6 +142,13 @@ public abstract class Matcher {
 			}
 		}
 
+		return true;
+	}
+
+	/**
+	 * @return whether a match may end at e, i.e. whether e is followed by a non-alphanumeric character (or the end of the text)
+	 */
+	protected static boolean isValidEnd(String text, int e){
 		if (e < text.length()-1){
 			char c = text.charAt(e);
 			if (Character.isLetterOrDigit(c) && c != '>' && c != '<'){
@@ -58,89 +156,126 @@ public abstract class Matcher {
 			}
 		}
 
-		return true;		
+		return true;
 	}
 
 	public static List<Mention> disambiguate(String text, List<Mention> matches, Disambiguation mode){
 		if (mode == Disambiguation.OFF || matches == null || matches.size() == 0)
 			return matches;
 
-		List<Mention> res = new ArrayList<Mention>(matches); 
+		Mention[] ms = matches.toArray(new Mention[matches.size()]);
+		boolean[] removed = new boolean[ms.length];
+		OverlapIndex index = new OverlapIndex(ms);
 
 		//if several matches are overlapping, remove any matches that are smaller than the others
-		//(only preserve the ones with maximum length, which are very likely to be the correct hits, e.g. "mice" - "nude mice")
-		for (int i = 0; i < res.size(); i++){
-			Mention m1 = res.get(i);
-			int s1 = m1.getStart();
-			int e1 = m1.getEnd();
-
-			for (int j = i+1; j < res.size(); j++){
-				Mention m2 = res.get(j);
-
-				int s2 = m2.getStart();
-				int e2 = m2.getEnd();
-
-				if (Mention.overlaps(m1, m2)){
-					if (e2-s2 < e1-s1){
-						res.remove(j);
-						j--;
-					} else if (e1-s1 < e2-s2){
-						res.remove(i);
-						i--;
+		//(only preserve the ones with maximum length, which are very likely to be the correct hits, e.g. "mice" - "nude mice").
+		//Matches are processed in list order: each removes the shorter matches after it that it overlaps, until it reaches
+		//an overlapping longer match, which instead removes it.
+		for (int i = 0; i < ms.length; i++){
+			if (removed[i])
+				continue;
+
+			int l1 = ms[i].getEnd() - ms[i].getStart();
+
+			for (int j : index.getOverlapping(i)){
+				if (j > i && !removed[j]){
+					int l2 = ms[j].getEnd() - ms[j].getStart();
+
+					if (l2 < l1){
+						removed[j] = true;
+					} else if (l1 < l2){
+						removed[i] = true;
 						break;
-					}						
+					}
 				}
 			}
 		}
+
+		List<Mention> res = new ArrayList<Mention>(ms.length);
+		for (int i = 0; i < ms.length; i++)
+			if (!removed[i])
+				res.add(ms[i]);
 		
 		if (mode == Disambiguation.ON_LONGEST_ONLY)
 			return res;
 
-		boolean isClear[] = new boolean[res.size()];
+		ms = res.toArray(new Mention[res.size()]);
+		index = new OverlapIndex(ms);
 
 		//determine which matches are overlapping and which are "clear" matches
-		for (int i = 0; i < isClear.length; i++)
-			isClear[i] = !res.get(i).isAmbigous();
-
-		for (int i = 0; i < isClear.length; i++){
-			Mention m1 = res.get(i);
-
-			//determine if m1 overlaps with anything
-			for (int j = i+1; j < res.size(); j++){
-				Mention m2 = res.get(j);
-
-				if (Mention.overlaps(m1, m2)){
-					isClear[i] = false;
-					isClear[j] = false;
-				}
+		boolean isClear[] = new boolean[ms.length];
+		for (int i = 0; i < ms.length; i++)
+			isClear[i] = !ms[i].isAmbigous() && index.getOverlapping(i).size() == 0;
+
+		//the clear matches, by their id, in list order
+		Map<String,TreeSet<Integer>> clearMatches = new HashMap<String,TreeSet<Integer>>();
+		for (int i = 0; i < ms.length; i++)
+			if (isClear[i])
+				addClear(clearMatches, ms[i].getIds()[0], i);
+
+		Map<String,List<Integer>> matchesByText = new HashMap<String,List<Integer>>();
+		if (mode == Disambiguation.ON_EARLIER){
+			for (int i = 0; i < ms.length; i++){
+				if (!matchesByText.containsKey(ms[i].getText()))
+					matchesByText.put(ms[i].getText(), new ArrayList<Integer>());
+				matchesByText.get(ms[i].getText()).add(i);
 			}
 		}
 
+		boolean sortedByStart = true;
+		for (int i = 1; i < ms.length; i++)
+			if (ms[i].getStart() < ms[i-1].getStart())
+				sortedByStart = false;
+
 		//disambiguate by finding clear matches in the document for ambiguous mentions
-		for (int i = 0; i < res.size(); i++){
-			Mention m1 = res.get(i);
+		for (int i = 0; i < ms.length; i++){
+			Mention m1 = ms[i];
 			//if m1 does overlap
 			if (m1 != null && !isClear[i]){
 				int s1 = m1.getStart();
 
-				for (int j = 0; j < res.size(); j++){
-					Mention m2 = res.get(j);
-
-					//find match which does not overlap, has same species, and ((is located earlier) or (located anywhere if we are looking at the whole document)) 
-					if (m2 != null && (m2.getStart() < s1 || mode == Disambiguation.ON_WHOLE) && m1.containsID(m2.getIds()[0]) && isClear[j]){
-						isClear[i] = true;
-						String id = m2.getIds()[0];
-						m1.disambiguate(id);
+				//find the first match which is clear, has one of the ids of m1, and ((is located earlier) or (located anywhere if we are looking at the whole document))
+				int first = -1;
+				for (String id : m1.getIds()){
+					if (clearMatches.containsKey(id)){
+						for (int j : clearMatches.get(id)){
+							if (first != -1 && j > first)
+								break;
+							if (ms[j].getStart() < s1 || mode == Disambiguation.ON_WHOLE){
+								first = j;
+								break;
+							}
+							//later matches will not be located earlier either
+							if (sortedByStart)
+								break;
+						}
+					}
+				}
 
-						//explicit match is found, so remove any matches that overlap with m1
-						for (int k = 0; k < res.size(); k++){
-							if (res.get(k) != null && Mention.overlaps(m1, res.get(k)) && k != i)
-								res.set(k,null);
+				if (first != -1){
+					isClear[i] = true;
+					String id = ms[first].getIds()[0];
+					m1.disambiguate(id);
+					addClear(clearMatches, id, i);
+
+					//explicit match is found, so remove any matches that overlap with m1
+					for (int k : index.getOverlapping(i)){
+						if (ms[k] != null){
+							if (isClear[k])
+								clearMatches.get(ms[k].getIds()[0]).remove(k);
+							ms[k] = null;
+						}
+					}
 
-							//test mode
-							if (res.get(k) != null && mode == Disambiguation.ON_EARLIER && m1.getText().equals(res.get(k).getText()) && res.get(k).containsID(id)){
-								res.get(k).disambiguate(id);
-								isClear[k] = true;
+					//test mode
+					if (mode == Disambiguation.ON_EARLIER){
+						for (int k : matchesByText.get(m1.getText())){
+							if (ms[k] != null && ms[k].containsID(id)){
+								ms[k].disambiguate(id);
+								if (!isClear[k]){
+									isClear[k] = true;
+									addClear(clearMatches, id, k);
+								}
 							}
 						}
 					}
@@ -148,67 +283,211 @@ public abstract class Matcher {
 			}
 		}
 
-		for (int i = 0; i < res.size(); i++)
-			if (res.get(i) == null)
-				res.remove(i--);
+		res = new ArrayList<Mention>(ms.length);
+		for (int i = 0; i < ms.length; i++)
+			if (ms[i] != null)
+				res.add(ms[i]);
 
 		return res;
 	}
 
+	private static void addClear(Map<String,TreeSet<Integer>> clearMatches, String id, int i){
+		if (!clearMatches.containsKey(id))
+			clearMatches.put(id, new TreeSet<Integer>());
+		clearMatches.get(id).add(i);
+	}
+
+	/**
+	 * Allows the matches overlapping a given match to be found without comparing it to all other matches, by sorting the matches
+	 * by start coordinate and sweeping from the position of the match.
+	 */
+	private static class OverlapIndex {
+		private Mention[] mentions;
+
+		/**
+		 * the indices of the mentions, sorted by start coordinate, and their start coordinates
+		 */
+		private int[] byStart;
+		private int[] starts;
+
+		/**
+		 * maxEnds[p] is the largest end coordinate of the mentions at byStart[0..p]
+		 */
+		private int[] maxEnds;
+
+		OverlapIndex(final Mention[] mentions){
+			this.mentions = mentions;
+			int n = mentions.length;
+
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++)
+				order[i] = i;
+
+			Arrays.sort(order, new Comparator<Integer>(){
+				public int compare(Integer i1, Integer i2) {
+					int s1 = mentions[i1].getStart();
+					int s2 = mentions[i2].getStart();
+					return s1 < s2 ? -1 : (s1 > s2 ? 1 : i1.compareTo(i2));
+				}
+			});
+
+			this.byStart = new int[n];
+			this.starts = new int[n];
+			this.maxEnds = new int[n];
+			for (int p = 0; p < n; p++){
+				byStart[p] = order[p];
+				starts[p] = mentions[order[p]].getStart();
+				maxEnds[p] = p > 0 ? Math.max(maxEnds[p-1], mentions[order[p]].getEnd()) : mentions[order[p]].getEnd();
+			}
+		}
+
+		/**
+		 * @return the indices of the mentions (other than i) overlapping mentions[i], in ascending order. Mentions that have been
+		 * set to null in the array since the index was created are skipped.
+		 */
+		List<Integer> getOverlapping(int i){
+			Mention m = mentions[i];
+			int s = m.getStart();
+			int e = m.getEnd();
+
+			//the first mention starting at or after s
+			int lo = 0;
+			int hi = starts.length;
+			while (lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] < s)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			List<Integer> res = new ArrayList<Integer>();
+
+			//mentions starting before m, which overlap it if they end after its start
+			for (int p = lo - 1; p >= 0 && maxEnds[p] > s; p--)
+				if (mentions[byStart[p]] != null && Mention.overlaps(m, mentions[byStart[p]]))
+					res.add(byStart[p]);
+
+			//mentions starting at or after the start of m, which overlap it if they start before its end
+			for (int p = lo; p < starts.length && (starts[p] < e || starts[p] == s); p++)
+				if (byStart[p] != i && mentions[byStart[p]] != null && Mention.overlaps(m, mentions[byStart[p]]))
+					res.add(byStart[p]);
+
+			Collections.sort(res);
+			return res;
+		}
+	}
+
+	/**
+	 * Combines mentions with the same coordinates into single mentions, holding the ids of all of them. The probabilities of the
+	 * ids are normalized to sum to 1, and the ids sorted by decreasing probability. Mentions are grouped through an open-addressing
+	 * hash table on their packed coordinates, and returned in the order of their first occurrence.
+	 */
 	public static List<Mention> combineMatches(List<Mention> matches){
-		ArrayList<Mention> res = new ArrayList<Mention>();
+		return combineMatches(new MentionBuffer(null, null, matches));
+	}
 
-		boolean[] removed = new boolean[matches.size()];
+	/**
+	 * Combines mentions with the same coordinates (see combineMatches(List)), creating Mention objects only for the combined mentions.
+	 */
+	public static List<Mention> combineMatches(MentionBuffer matches){
+		int n = matches.size();
+
+		//the group (distinct span) of each mention, and the first mention and total number of ids of each group
+		int[] groupOf = new int[n];
+		int[] firstOf = new int[n];
+		int[] numIDs = new int[n];
+		int numGroups = 0;
+
+		//open-addressing table from packed spans to groups, at most half full (groups are stored as g+1, so that 0 marks an empty slot)
+		int capacity = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) << 1;
+		long[] spans = new long[capacity];
+		int[] spanGroups = new int[capacity];
+
+		for (int i = 0; i < n; i++){
+			long span = ((long) matches.getStart(i) << 32) | (matches.getEnd(i) & 0xffffffffL);
+
+			int slot = (int) ((span * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+			while (spanGroups[slot] != 0 && spans[slot] != span)
+				slot = (slot + 1) & (capacity - 1);
+
+			int g;
+			if (spanGroups[slot] == 0){
+				g = numGroups++;
+				spans[slot] = span;
+				spanGroups[slot] = g + 1;
+				firstOf[g] = i;
+			} else {
+				g = spanGroups[slot] - 1;
+			}
 
-		for (int i = 0; i < matches.size(); i++){
-			if (!removed[i]){
-				Mention m1 = matches.get(i);
-				List<Tuple<String,Double>> sp = new ArrayList<Tuple<String,Double>>();
-
-				String[] ids_ = m1.getIdsWithLineNumbers();
-				Double[] probs_ = m1.getProbabilities();
-				
-				for (int j = 0;j < ids_.length; j++){
-					double d = probs_ != null && probs_[j] != null ? probs_[j] : 0; 
-					sp.add(new Tuple<String,Double>(ids_[j],d));
-				}				
-				
-				for (int j = i+1; j < matches.size(); j++){
-					if (matches.get(j).getStart() == m1.getStart() && matches.get(j).getEnd() == m1.getEnd()){
-
-						ids_ = matches.get(j).getIdsWithLineNumbers();
-						probs_ = matches.get(j).getProbabilities();
-						
-						for (int k = 0;k < ids_.length; k++){
-							double d = probs_ != null && probs_[k] != null ? probs_[k] : 0; 
-							sp.add(new Tuple<String,Double>(ids_[k],d));
-						}				
+			groupOf[i] = g;
+			numIDs[g] += matches.getNumIDs(i);
+		}
 
-						removed[j] = true;
-					}
-				}
+		String[][] ids = new String[numGroups][];
+		String[][] idLines = new String[numGroups][];
+		double[][] probs = new double[numGroups][];
+		int[] filled = new int[numGroups];
 
-				String[] ids = new String[sp.size()];
-				Double[] probs = new Double[sp.size()];
-				double total = 0;
-				
-				for (Tuple<String,Double> t : sp)
-					total += t.getB();
-				
-				for (int j = 0; j < sp.size(); j++){
-					ids[j] = sp.get(j).getA();
-					probs[j] = total > 0 ? sp.get(j).getB() / total : 0;
-				}
+		for (int g = 0; g < numGroups; g++){
+			ids[g] = new String[numIDs[g]];
+			idLines[g] = new String[numIDs[g]];
+			probs[g] = new double[numIDs[g]];
+		}
+
+		for (int i = 0; i < n; i++){
+			int g = groupOf[i];
+
+			for (int j = 0; j < matches.getNumIDs(i); j++){
+				int k = filled[g]++;
+				double p = matches.getProbability(i, j);
+				ids[g][k] = matches.getID(i, j);
+				idLines[g][k] = matches.getIDLine(i, j);
+				probs[g][k] = Double.isNaN(p) ? 0 : p;
+			}
+		}
+
+		List<Mention> res = new ArrayList<Mention>(numGroups);
 
-				Mention m = new Mention(ids,m1.getStart(),m1.getEnd(),m1.getText());
+		for (int g = 0; g < numGroups; g++){
+			int first = firstOf[g];
+			double[] p = probs[g];
 
-				m.setDocid(m1.getDocid());
-				m.setComment(m1.getComment());
-				m.setProbabilities(probs);
-				m.sortIDsByProbabilities();
+			double total = 0;
+			for (int j = 0; j < p.length; j++)
+				total += p[j];
 
-				res.add(m);
+			for (int j = 0; j < p.length; j++)
+				p[j] = total > 0 ? p[j] / total : 0;
+
+			//order the ids by decreasing probability (stable, so that equally probable ids keep their order)
+			int[] order = new int[p.length];
+			for (int j = 0; j < p.length; j++){
+				int k = j;
+				while (k > 0 && Double.compare(-p[j], -p[order[k-1]]) < 0){
+					order[k] = order[k-1];
+					k--;
+				}
+				order[k] = j;
+			}
+
+			String[] sortedIDs = new String[p.length];
+			String[] sortedLines = new String[p.length];
+			Double[] sortedProbs = new Double[p.length];
+			for (int j = 0; j < p.length; j++){
+				sortedIDs[j] = ids[g][order[j]];
+				sortedLines[j] = idLines[g][order[j]];
+				sortedProbs[j] = p[order[j]];
 			}
+
+			Mention m = new Mention(sortedIDs, sortedLines, matches.getStart(first), matches.getEnd(first), matches.getText(first));
+
+			m.setDocid(matches.getDocid(first));
+			m.setComment(matches.getComment(first));
+			m.setProbabilities(sortedProbs);
+
+			res.add(m);
 		}
 
 		return res;
@@ -218,12 +497,25 @@ public abstract class Matcher {
 		return match(text, null);
 	}
 
+	/**
+	 * the form of acronyms that are defined in parentheses after a mention, e.g. "interleukin 2 (IL2)"
+	 */
+	private static final Pattern ACRONYM_PATTERN = Pattern.compile("[ABCDEFGHIJKLMNOPQRSTUVWXYZ][ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789\\-\\.]+");
+
+	/**
+	 * Detects acronyms defined for mentions (e.g. "interleukin 2 (IL2)"), and adds mentions for the acronym definitions and for
+	 * later occurrences of the acronyms (as whole words). All acronyms are searched for in a single pass over the text, and
+	 * new mentions are only added where they do not overlap any other mention.
+	 */
 	protected static void performAcronymResolution(Document doc, String text, List<Mention> matches){
 		HashMap<String,Mention> acronyms = new HashMap<String,Mention>();
 
-		String regexp = "[ABCDEFGHIJKLMNOPQRSTUVWXYZ][ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789\\-\\.]+";
 		String docID = doc != null ? doc.getID() : null;
 
+		MentionIntervals intervals = new MentionIntervals();
+		for (Mention m : matches)
+			intervals.add(m);
+
 		for (int i = 0; i < matches.size(); i++){
 			Mention m = matches.get(i);
 			int s = m.getStart();
@@ -236,18 +528,12 @@ public abstract class Matcher {
 					if (ncp > -1 && ncp < text.length()){
 						String abb = text.substring(e+2,ncp);
 
-						if (abb.matches(regexp) && abb.length() < 5){
+						if (abb.length() < 5 && ACRONYM_PATTERN.matcher(abb).matches()){
 							Mention a = new Mention(m.getIds(),e+2,ncp,abb);
 							a.setComment("abbrev main (" + m.getText() + ")");
 							a.setDocid(m.getDocid());
 							
-							boolean overlaps = false;
-							
-							for (int j = 0; j < matches.size(); j++)
-								if (matches.get(j).overlaps(a))
-									overlaps = true;
-							
-							if (!acronyms.containsKey(abb) && !overlaps)
+							if (!acronyms.containsKey(abb) && !intervals.overlaps(a))
 								acronyms.put(abb,a);
 						}
 					}
@@ -255,30 +541,46 @@ public abstract class Matcher {
 			}
 		}
 
-		for (Mention m : acronyms.values()){
-			Pattern p = Pattern.compile("\\b" + m.getText() + "\\b");
-			java.util.regex.Matcher matcher = p.matcher(text);
+		if (acronyms.size() == 0)
+			return;
+
+		//find the whole-word occurrences of all acronyms, keeping (like a regular expression search would) only the
+		//first of any overlapping occurrences of the same acronym
+		String[] abbs = acronyms.keySet().toArray(new String[0]);
+		AhoCorasick ac = new AhoCorasick(abbs);
+
+		List<List<Integer>> occurrences = new ArrayList<List<Integer>>(abbs.length);
+		for (int i = 0; i < abbs.length; i++)
+			occurrences.add(new ArrayList<Integer>());
+		int[] lastEnd = new int[abbs.length];
+
+		for (Pair<Integer> o : ac.find(text)){
+			int p = o.getX();
+			int s = o.getY();
+			int e = s + abbs[p].length();
+
+			if (s >= lastEnd[p] && isWordBoundary(text, s) && isWordBoundary(text, e)){
+				occurrences.get(p).add(s);
+				lastEnd[p] = e;
+			}
+		}
+
+		for (int p = 0; p < abbs.length; p++){
+			Mention m = acronyms.get(abbs[p]);
 			int numMatched = 0;
-			while (matcher.find()){
-				int s = matcher.start();
-				int e = matcher.end();
+
+			for (int s : occurrences.get(p)){
+				int e = s + abbs[p].length();
 
 				if (s > m.getEnd()){
 					Mention nm = new Mention(m.getIds(),s,e,text.substring(s,e));
 					nm.setComment("abbrev sec");
 					nm.setDocid(m.getDocid());
-					boolean add = true;
-
-					for (int i = 0; i < matches.size(); i++){
-						if (matches.get(i).overlaps(nm)){
-							add = false;
-							break;
-						}
-					}
 
-					if (add){
+					if (!intervals.overlaps(nm)){
 						nm.setDocid(docID);
 						matches.add(nm);
+						intervals.add(nm);
 						numMatched++;
 					}
 				}
@@ -287,10 +589,24 @@ public abstract class Matcher {
 			if (numMatched > 0){
 				m.setDocid(docID);
 				matches.add(m);
+				intervals.add(m);
 			}
 		}
 	}
 
+	/**
+	 * @return whether there is a word boundary (as matched by \b in regular expressions) at position i of the text
+	 */
+	private static boolean isWordBoundary(String text, int i){
+		boolean before = i > 0 && isWordChar(text.charAt(i-1));
+		boolean after = i < text.length() && isWordChar(text.charAt(i));
+		return before != after;
+	}
+
+	private static boolean isWordChar(char c){
+		return c == '_' || Character.isLetterOrDigit(c);
+	}
+
 	public static void detectEnumerations(List<Mention> matches, String text) {
 		int nextGroup = 0;
 
@@ -12,13 +12,20 @@ import java.util.Set;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import uk.ac.man.entitytagger.IDTable;
 import uk.ac.man.entitytagger.Mention;
 
 public class Postprocessor {
-
-	private Map<String,List<Pattern>> stopTerms;
-	private Map<String,HashMap<String,Double>> acronymProbabilities;
-	private Map<String,Integer> entityFrequencies;
+	private static final IDTable table = IDTable.getGlobal();
+
+	/**
+	 * the stop-term patterns, acronym probabilities and frequencies of entities, indexed by IDTable entity number (null for
+	 * entities without any). Stop-terms given for "*" apply to all entities.
+	 */
+	private List<List<Pattern>> stopTerms;
+	private List<Pattern> generalStopTerms;
+	private List<HashMap<String,Double>> acronymProbabilities;
+	private List<Integer> entityFrequencies;
 	protected Map<String, String> comments;
 
 	public Postprocessor(File stopTermFile[], File[] acronymProbFile, File[] entityFrequencyFile, Map<String,String> comments, Logger logger){
@@ -33,18 +40,43 @@ public class Postprocessor {
 
 		if (logger != null)
 			logger.info(" done (s: " +
-					(stopTerms != null ? stopTerms.size() : 0) + ", a: " + 
-					(acronymProbabilities != null ? acronymProbabilities.size() : 0) + ", f: " + 
-					(entityFrequencies != null ? entityFrequencies.size() : 0) + ", c: " + 
+					(count(stopTerms) + (generalStopTerms != null ? 1 : 0)) + ", a: " + 
+					count(acronymProbabilities) + ", f: " + 
+					count(entityFrequencies) + ", c: " + 
 					(comments != null ? comments.size() : 0)+ 
 			").\n");
 	}
 
-	private Map<String, Integer> loadEntityFrequencies(File[] entityFrequencyFiles) {
+	/**
+	 * @return the number of entities with values
+	 */
+	private static int count(List<?> byEntity){
+		int res = 0;
+		if (byEntity != null)
+			for (Object o : byEntity)
+				if (o != null)
+					res++;
+		return res;
+	}
+
+	/**
+	 * @return the value of an entity (null if it has none, or if entity is -1)
+	 */
+	private static <E> E get(List<E> byEntity, int entity){
+		return byEntity != null && entity >= 0 && entity < byEntity.size() ? byEntity.get(entity) : null;
+	}
+
+	private static <E> void put(List<E> byEntity, int entity, E value){
+		while (byEntity.size() <= entity)
+			byEntity.add(null);
+		byEntity.set(entity, value);
+	}
+
+	private List<Integer> loadEntityFrequencies(File[] entityFrequencyFiles) {
 		if (entityFrequencyFiles == null || entityFrequencyFiles.length == 0)
 			return null;
 
-		Map<String, Integer> retres = new HashMap<String, Integer>();
+		List<Integer> retres = new ArrayList<Integer>();
 
 		try{
 			for (File entityFrequencyFile : entityFrequencyFiles){
@@ -55,7 +87,7 @@ public class Postprocessor {
 
 					if (!line.startsWith("#")){
 						String[] fields = line.split("\\t");
-						retres.put(fields[0], Integer.parseInt(fields[1]));
+						put(retres, table.getEntity(fields[0]), Integer.parseInt(fields[1]));
 					}
 
 					line = inStream.readLine();
@@ -72,13 +104,13 @@ public class Postprocessor {
 		return retres;
 	}
 
-	private HashMap<String, HashMap<String, Double>> loadAcronymProbabilities(
+	private List<HashMap<String, Double>> loadAcronymProbabilities(
 			File[] acronymProbFiles) {
 
 		if (acronymProbFiles == null || acronymProbFiles.length == 0)
 			return null;
 
-		HashMap<String, HashMap<String, Double>> retres = new HashMap<String, HashMap<String,Double>>();
+		List<HashMap<String, Double>> retres = new ArrayList<HashMap<String,Double>>();
 
 		try{
 			for (File acronymProbFile : acronymProbFiles){
@@ -91,11 +123,12 @@ public class Postprocessor {
 						String[] fields = line.split("\\t");
 
 						double d = Double.parseDouble(fields[2]);
+						int entity = table.getEntity(fields[0]);
 
-						if (!retres.containsKey(fields[0]))
-							retres.put(fields[0], new HashMap<String, Double>());
+						if (get(retres, entity) == null)
+							put(retres, entity, new HashMap<String, Double>());
 
-						retres.get(fields[0]).put(fields[1], d);
+						retres.get(entity).put(fields[1], d);
 					}
 
 					line = inStream.readLine();
@@ -112,11 +145,11 @@ public class Postprocessor {
 		return retres;
 	}
 
-	private HashMap<String, List<Pattern>> loadStopTerms(File[] stopTermFiles) {
+	private List<List<Pattern>> loadStopTerms(File[] stopTermFiles) {
 		if (stopTermFiles == null || stopTermFiles.length == 0)
 			return null;
 
-		HashMap<String, List<Pattern>> retres = new HashMap<String, List<Pattern>>();
+		List<List<Pattern>> retres = new ArrayList<List<Pattern>>();
 		try{
 			for (File stopTermFile : stopTermFiles){
 				BufferedReader inStream = new BufferedReader(new FileReader(stopTermFile));
@@ -126,14 +159,21 @@ public class Postprocessor {
 					if (!line.startsWith("#") && line.length() > 0){
 						String[] fields = line.split("\\t");
 
-						String id = fields[0];
-
-						if (!retres.containsKey(id)){
-							retres.put(id,new ArrayList<Pattern>());
+						List<Pattern> patterns;
+
+						if (fields[0].equals("*")){
+							if (generalStopTerms == null)
+								generalStopTerms = new ArrayList<Pattern>();
+							patterns = generalStopTerms;
+						} else {
+							int entity = table.getEntity(fields[0]);
+							if (get(retres, entity) == null)
+								put(retres, entity, new ArrayList<Pattern>());
+							patterns = retres.get(entity);
 						}
 
 						if (fields.length > 1)
-							retres.get(fields[0]).add(Pattern.compile("^" + fields[1] + "$"));
+							patterns.add(Pattern.compile("^" + fields[1] + "$"));
 						else{
 							System.err.println("Stop-term line \"" + line + "\" does not contain enough fields.");
 							System.exit(-1);
@@ -167,24 +207,37 @@ public class Postprocessor {
 		return retres;
 	}
 
+	/**
+	 * Removes any line numbers remaining in the ids of the mentions, and the duplicate ids that result. Line numbers are normally
+	 * split from the ids when mentions are created (see Mention.splitID()), so the ids rarely need to be changed.
+	 */
 	private void removeLineNumbers(List<Mention> matches) {
 		for (Mention m : matches){
 			String[] ids = m.getIds();
+
+			//a single id cannot have duplicates
+			if (ids.length == 1){
+				m.setIds(new String[]{removeLineNumber(ids[0])});
+				continue;
+			}
 			
 			Set<String> idSet = new HashSet<String>();
 
-			for (int i = 0; i < ids.length; i++){
-				/*String[] fields = ids[i].split(":");
-				if (fields.length > 3)
-					ids[i] = fields[0] + ":" + fields[1] + ":" + fields[2];*/
-				String[] fields = ids[i].split("\\" + Mention.COMMENT_SEPARATOR);
-				idSet.add(fields[0]);					
-			}
+			for (int i = 0; i < ids.length; i++)
+				idSet.add(removeLineNumber(ids[i]));
 
 			m.setIds(idSet.toArray(new String[0]));			
 		}		
 	}
 
+	/**
+	 * @return the id up to the first separator
+	 */
+	private static String removeLineNumber(String id){
+		int sep = id.indexOf(Mention.COMMENT_SEPARATOR);
+		return sep != -1 ? id.substring(0, sep) : id;
+	}
+
 	public void comment(List<Mention> matches, Map<String, String> comments2) {
 		if (comments2 == null)
 			return;
@@ -211,22 +264,30 @@ public class Postprocessor {
 			String[] ids = m.getIds();
 			String term = m.getText();
 
+			int[] entities = new int[ids.length];
+			for (int i = 0; i < ids.length; i++)
+				entities[i] = table.findEntity(ids[i]);
+
 			Double[] probabilities = new Double[ids.length];
 			int freqSum = 0;
 
 			if (ids.length > 1){
-				for (String s : ids)
-					if (entityFrequencies != null && entityFrequencies.containsKey(s))
-						freqSum += entityFrequencies.get(s);
+				for (int e : entities){
+					Integer freq = get(entityFrequencies, e);
+					if (freq != null)
+						freqSum += freq;
+				}
 			}
 
 			for (int i = 0; i < ids.length; i++){
-				String s = ids[i];
-				if (acronymProbabilities != null && acronymProbabilities.containsKey(s) && acronymProbabilities.get(s).containsKey(term))
-					probabilities[i] = acronymProbabilities.get(s).get(term);
+				HashMap<String,Double> acronymProbs = get(acronymProbabilities, entities[i]);
+				Integer freq = get(entityFrequencies, entities[i]);
+
+				if (acronymProbs != null && acronymProbs.containsKey(term))
+					probabilities[i] = acronymProbs.get(term);
 				else
-					if (entityFrequencies != null && ids.length > 1 && entityFrequencies.containsKey(s)){
-						probabilities[i] = ((double)entityFrequencies.get(s))/((double)freqSum);
+					if (freq != null && ids.length > 1){
+						probabilities[i] = ((double)freq)/((double)freqSum);
 					}
 			}
 			
@@ -237,7 +298,7 @@ public class Postprocessor {
 
 	private List<Mention> filterByStopTerms(List<Mention> matches) {
 		List<Mention> retres = new ArrayList<Mention>(matches.size());
-		List<Pattern> generalPatterns = (stopTerms != null && stopTerms.containsKey("*")) ? stopTerms.get("*") : null;
+		List<Pattern> generalPatterns = generalStopTerms;
 
 		for (Mention m : matches){
 			String[] ids = m.getIds();
@@ -245,8 +306,8 @@ public class Postprocessor {
 			boolean remove = false;
 
 			for (String s : ids){
-				if (stopTerms != null && stopTerms.containsKey(s)){
-					List<Pattern> patterns = stopTerms.get(s);
+				List<Pattern> patterns = get(stopTerms, table.findEntity(s));
+				if (patterns != null){
 					for (Pattern p : patterns)
 						if (p.matcher(term).matches()){
 							remove = true;
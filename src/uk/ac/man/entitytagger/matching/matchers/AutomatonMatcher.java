@@ -2,18 +2,35 @@ package uk.ac.man.entitytagger.matching.matchers;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import dk.brics.automaton.CustomRunAutomaton;
+import dk.brics.automaton.IDAutomaton;
+import dk.brics.automaton.MappedRunAutomaton;
 
 import uk.ac.man.documentparser.dataholders.Document;
+import uk.ac.man.entitytagger.IDTable;
 import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.MentionBuffer;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 
 /**
@@ -21,17 +38,44 @@ import uk.ac.man.entitytagger.matching.Matcher;
  * @author Martin
  */
 public class AutomatonMatcher extends Matcher {
-	private CustomRunAutomaton[] automatons;
+	/**
+	 * first ints of files stored by storeMapped(), identifying the format and its version
+	 */
+	private static final int MAPPED_MAGIC = 0x4C494E4E;
+	private static final int MAPPED_VERSION = 1;
+
+	private IDAutomaton[] automatons;
 	private boolean ignoreCase;
+
+	/**
+	 * for each automaton, the IDTable entry of each of its IDs (see IDAutomaton.getID()), or -1 if the ID has not been
+	 * matched yet. Entries are resolved on the first match of each ID, so that loading a large (e.g. mapped) automaton does
+	 * not decode and intern all of its IDs.
+	 */
+	private int[][] idEntries;
+
+	/**
+	 * documents of at least this length are scanned by the automatons concurrently (-1 if never)
+	 */
+	private int parallelLength = -1;
+
+	/**
+	 * executor shared by all AutomatonMatchers, scanning documents with all automatons except the first when parallel
+	 */
+	private static ExecutorService executor = null;
 	
 	/**
 	 * Will load an automaton binary file, and return a created automaton matcher.
+	 * Files stored by storeMapped() are memory-mapped (see loadMappedMatcher()), while other files are deserialized.
 	 * @param file
 	 * @param ignoreCase2 
 	 * @return the automaton matcher
 	 */
 	public static AutomatonMatcher loadMatcher(File file){
 		try{ 
+			if (isMapped(file))
+				return loadMappedMatcher(file);
+
 			ObjectInputStream inStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
 			
 			int size =  inStream.readInt();
@@ -55,6 +99,92 @@ public class AutomatonMatcher extends Matcher {
 		return null;
 	}
 
+	/**
+	 * @return whether file was stored by storeMapped() (rather than serialized)
+	 */
+	public static boolean isMapped(File file) throws IOException {
+		DataInputStream magicStream = new DataInputStream(new FileInputStream(file));
+		boolean mapped = file.length() >= 4 && magicStream.readInt() == MAPPED_MAGIC;
+		magicStream.close();
+		return mapped;
+	}
+
+	/**
+	 * Loads automatons stored by storeMapped(). The automatons are memory-mapped and read in place, rather than copied onto
+	 * the heap, so that loading takes little time regardless of their size, and processes loading the same file share
+	 * its pages through the page cache.
+	 * @return the automaton matcher
+	 */
+	public static AutomatonMatcher loadMappedMatcher(File file){
+		try{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 16);
+			if (header.getInt(0) != MAPPED_MAGIC)
+				throw new IllegalStateException("File " + file.getAbsolutePath() + " is not a mapped automaton file");
+			if (header.getInt(4) != MAPPED_VERSION)
+				throw new IllegalStateException("File " + file.getAbsolutePath() + " has format version " + header.getInt(4) + ", expected " + MAPPED_VERSION);
+
+			boolean ignoreCase = header.getInt(8) != 0;
+			int size = header.getInt(12);
+
+			//offset and length of each automaton
+			ByteBuffer sections = channel.map(FileChannel.MapMode.READ_ONLY, 16, 16L * size);
+
+			MappedRunAutomaton[] automatons = new MappedRunAutomaton[size];
+			for (int i = 0; i < size; i++)
+				automatons[i] = new MappedRunAutomaton(channel.map(FileChannel.MapMode.READ_ONLY, sections.getLong(16 * i), sections.getLong(16 * i + 8)));
+
+			//mappings stay valid after the channel is closed
+			raf.close();
+
+			return new AutomatonMatcher(automatons, ignoreCase);
+		} catch (Exception e){
+			System.err.println(e);
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores automatons in the format read by loadMappedMatcher(): a header (magic number, format version, whether case is
+	 * ignored, number of automatons, and the offset and length of each automaton) followed by the automatons, as written
+	 * by MappedRunAutomaton.write()
+	 */
+	public static void storeMapped(CustomRunAutomaton[] automatons, boolean ignoreCase, File file){
+		try{
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+			outStream.writeInt(MAPPED_MAGIC);
+			outStream.writeInt(MAPPED_VERSION);
+			outStream.writeInt(ignoreCase ? 1 : 0);
+			outStream.writeInt(automatons.length);
+
+			long offset = 16 + 16L * automatons.length;
+			for (int i = 0; i < automatons.length; i++){
+				long length = MappedRunAutomaton.getLength(automatons[i]);
+				//each automaton is mapped as a single buffer
+				if (length > Integer.MAX_VALUE)
+					throw new IllegalStateException("Automaton " + i + " is too large to be mapped (" + length + " bytes), use a higher --multiJoin");
+				outStream.writeLong(offset);
+				outStream.writeLong(length);
+				offset += length;
+			}
+
+			for (int i = 0; i < automatons.length; i++)
+				MappedRunAutomaton.write(automatons[i], outStream);
+
+			outStream.close();
+		} catch (Exception e){
+			System.err.println(e);
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
 	public static AutomatonMatcher[] loadMatchers(File[] files){
 		AutomatonMatcher[] matchers = new AutomatonMatcher[files.length];
 		for (int i = 0; i < matchers.length; i++)
@@ -68,16 +198,52 @@ public class AutomatonMatcher extends Matcher {
 	 * @param automatons the automatons used for matching
 	 * @param ignoreCase whether to ignore case or not
 	 */
-	public AutomatonMatcher(CustomRunAutomaton[] automatons, boolean ignoreCase){
+	public AutomatonMatcher(IDAutomaton[] automatons, boolean ignoreCase){
 		this.automatons = automatons;
 		this.ignoreCase = ignoreCase;
+
+		this.idEntries = new int[automatons.length][];
+		for (int i = 0; i < automatons.length; i++){
+			idEntries[i] = new int[automatons[i].getNumIDs()];
+			Arrays.fill(idEntries[i], -1);
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor(){
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+				public Thread newThread(Runnable r) {
+					//should not keep the program alive once matching is done
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return executor;
+	}
+
+	/**
+	 * Sets whether documents should be scanned by the automatons concurrently rather than one automaton after the other.
+	 * Each automaton still makes its own pass over the text (as the automatons are split to keep their sizes manageable,
+	 * a combined scan would make the same number of steps), but the latency of a large document becomes that of the
+	 * slowest automaton rather than the sum of them. The matches are the same, and in the same order.
+	 * @param parallelLength the length from which documents are scanned concurrently (-1 to never do so)
+	 */
+	public void setParallelLength(int parallelLength){
+		this.parallelLength = parallelLength;
 	}
 
 	/**
-	 * Will store the automatons in the automaton matcher to a file
+	 * Will store the automatons in the automaton matcher to a file (by serialization, so automatons loaded from mapped files
+	 * cannot be stored this way)
 	 * @param file
+	 * @throws IllegalStateException if the automatons were loaded from a mapped file
 	 */
 	public void store(File file){
+		for (IDAutomaton a : automatons)
+			if (!(a instanceof CustomRunAutomaton))
+				throw new IllegalStateException("The automatons were loaded from a mapped file, and cannot be stored by serialization; use the mapped file, or regenerate the automatons with --storeRArray");
+
 		try{
 			ObjectOutputStream dataStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
 
@@ -100,37 +266,129 @@ public class AutomatonMatcher extends Matcher {
 	 * Performs matching
 	 */
 	public List<Mention> match(String text, Document doc) {
-		List<Mention> matches = new ArrayList<Mention>();
-		String docID = doc != null ? doc.getID() : null;
-		
-		String matchText = ignoreCase ? text.toLowerCase() : text;
+		return match(new DocumentAnalysis(text, doc));
+	}
+
+	/**
+	 * Performs matching, using the lower-cased text of the analysis if ignoring case
+	 */
+	public List<Mention> match(DocumentAnalysis analysis) {
+		return matchBuffer(analysis).toMentions();
+	}
+
+	/**
+	 * Performs matching, storing the matches in a buffer rather than as Mention objects
+	 */
+	public MentionBuffer matchBuffer(DocumentAnalysis analysis) {
+		final String text = analysis.getText();
+		final Document doc = analysis.getDocument();
+		MentionBuffer matches = new MentionBuffer(text, doc != null ? doc.getID() : null);
 		
-		//run over all automatons
-		for (int i = 0; i < automatons.length; i++){
-			//create a text-specific matcher
-			dk.brics.automaton.CustomAutomatonMatcher matcher = automatons[i].newCustomMatcher(matchText);
+		final String matchText = analysis.getText(ignoreCase);
 
-			//search
-			while (matcher.findWithDelimitedID(CustomRunAutomaton.delimiter)){
-				int start = matcher.start();
-				int end = matcher.end();
-				
-				ArrayList<String> ids = matcher.getMatchIDs();
-				String matchedText = text.substring(start,end);
+		//only start and end matches at offsets accepted by isValidMatch(), unless lower-casing changed the length of the text
+		//(in which case matches are checked afterwards, as the coordinates of the two texts do not correspond)
+		boolean[] validStarts = null;
+		boolean[] validEnds = null;
+		if (matchText.length() == text.length()){
+			validStarts = new boolean[text.length() + 1];
+			validEnds = new boolean[text.length() + 1];
+			for (int j = 0; j <= text.length(); j++){
+				validStarts[j] = Matcher.isValidStart(text, j);
+				validEnds[j] = Matcher.isValidEnd(text, j);
+			}
+		}
+
+		if (parallelLength == -1 || text.length() < parallelLength || automatons.length == 1){
+			//run over all automatons
+			for (int i = 0; i < automatons.length; i++)
+				scan(i, text, matchText, doc, validStarts, validEnds, matches);
 
-				Mention match = new Mention(ids.toArray(new String[0]),start,end,matchedText);
+			return matches;
+		}
+
+		//scan with all automatons except the first on the executor, each into its own buffer, and then join them in order
+		final boolean[] starts = validStarts;
+		final boolean[] ends = validEnds;
+		List<Future<MentionBuffer>> futures = new ArrayList<Future<MentionBuffer>>(automatons.length - 1);
+		for (int i = 1; i < automatons.length; i++){
+			final int automaton = i;
+			futures.add(getExecutor().submit(new Callable<MentionBuffer>(){
+				public MentionBuffer call() {
+					MentionBuffer res = new MentionBuffer(text, doc != null ? doc.getID() : null);
+					scan(automaton, text, matchText, doc, starts, ends, res);
+					return res;
+				}
+			}));
+		}
 
-				match.setDocid(docID);
+		scan(0, text, matchText, doc, validStarts, validEnds, matches);
 
-				//add found mention if it's valid
-				if (Matcher.isValidMatch(text, match) && (doc == null || doc.isValid(start,end)))
-					matches.add(match);
+		try{
+			for (Future<MentionBuffer> f : futures){
+				MentionBuffer res = f.get();
+				for (int j = 0; j < res.size(); j++)
+					matches.add(res, j);
 			}
+		} catch (Exception e){
+			System.err.println(e);
+			e.printStackTrace();
+			System.exit(-1);
 		}
 		
 		return matches;
 	}
 
+	/**
+	 * Scans the text with one of the automatons, adding the matches to a buffer
+	 * @param i the index of the automaton
+	 * @param matchText the text to scan (lower-cased if ignoring case)
+	 * @param validStarts whether matches may start at each offset according to isValidMatch(), or null if matches should
+	 * instead be checked afterwards (if the coordinates of text and matchText do not correspond)
+	 * @param validEnds whether matches may end at each offset according to isValidMatch(), or null
+	 */
+	private void scan(int i, String text, String matchText, Document doc, boolean[] validStarts, boolean[] validEnds, MentionBuffer matches){
+		//create a text-specific matcher
+		IDAutomaton automaton = automatons[i];
+		dk.brics.automaton.CustomAutomatonMatcher matcher = automaton.newCustomMatcher(matchText);
+		if (validStarts != null)
+			matcher.setBoundaries(validStarts, validEnds);
+
+		int[] entries = idEntries[i];
+		int[] matchEntries = new int[4];
+
+		//search
+		while (matcher.findWithDelimitedID(CustomRunAutomaton.delimiter)){
+			int start = matcher.start();
+			int end = matcher.end();
+			
+			//add found mention if it's valid
+			if ((validStarts != null || Matcher.isValidMatch(text, start, end)) && (doc == null || doc.isValid(start,end))){
+				int n = matcher.getNumMatchIDs();
+				if (n > matchEntries.length)
+					matchEntries = new int[n];
+
+				for (int k = 0; k < n; k++){
+					int index = matcher.getMatchIDIndex(k);
+					//threads scanning with the same automaton may both resolve an entry, but IDTable.getEntry() returns the
+					//same entry for them, and an int is written atomically, so other threads see either -1 or the entry
+					if (entries[index] == -1)
+						entries[index] = IDTable.getGlobal().getEntry(automaton.getID(index));
+					matchEntries[k] = entries[index];
+				}
+
+				matches.add(start, end, matchEntries, n);
+			}
+		}
+	}
+
+	public List<MentionBuffer> matchBufferBatch(List<DocumentAnalysis> analyses) {
+		List<MentionBuffer> res = new ArrayList<MentionBuffer>(analyses.size());
+		for (DocumentAnalysis analysis : analyses)
+			res.add(matchBuffer(analysis));
+		return res;
+	}
+
 	@Override
 	public int size() {
 		return automatons.length;
@@ -139,7 +397,7 @@ public class AutomatonMatcher extends Matcher {
 	/**
 	 * @return the automatons
 	 */
-	 public CustomRunAutomaton[] getAutomatons() {
+	 public IDAutomaton[] getAutomatons() {
 		 return automatons;
 	 }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package uk.ac.man.entitytagger.matching.matchers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import martin.common.Misc;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.CustomAutomatonMatcher;
+import dk.brics.automaton.CustomRunAutomaton;
+import dk.brics.automaton.IDAutomaton;
+import dk.brics.automaton.RegExp;
+
+import uk.ac.man.documentparser.dataholders.Document;
+import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.matching.Matcher;
+
+/**
+ * Measures the time taken to scan a text with the automatons of an AutomatonMatcher, with runs of the automatons started at
+ * every offset of the text (and matches checked by isValidMatch() afterwards), and with runs only started at word boundaries
+ * (see CustomAutomatonMatcher.setBoundaries(), as done by AutomatonMatcher). The matches of the two scans are checked to be the same.
+ * The automatons and text can be given (e.g. a species automaton file, as loaded by AutomatonMatcher.loadMatcher(), and a
+ * sample of Medline abstracts); otherwise a dictionary of species-like names is generated, with many names sharing long
+ * prefixes, and a text where names occur among other words.
+ * Usage: AutomatonMatcherBenchmark [automaton file|-] [text file|-] [repeats]
+ * @author Martin
+ */
+public class AutomatonMatcherBenchmark {
+	private static final String[] SYLLABLES = {"stre", "pto", "coc", "cus", "ba", "cil", "lus", "my", "co", "bac", "ter", "ium", "sal", "mo", "nel", "la"};
+	private static final String[] WORDS = {"the", "strains", "of", "were", "isolated", "from", "and", "in", "patients", "with", "infection", "streptomycin", "bacterial", "colonies", "cultured", "mycobacteria", "salmonellosis"};
+
+	/**
+	 * Scans the text with the automatons, either starting runs at every offset or only at word boundaries
+	 */
+	private static class ScanMatcher extends Matcher {
+		private IDAutomaton[] automatons;
+		private boolean gated;
+
+		ScanMatcher(IDAutomaton[] automatons, boolean gated){
+			this.automatons = automatons;
+			this.gated = gated;
+		}
+
+		public List<Mention> match(String text, Document doc){
+			boolean[] validStarts = null;
+			boolean[] validEnds = null;
+			if (gated){
+				validStarts = new boolean[text.length() + 1];
+				validEnds = new boolean[text.length() + 1];
+				for (int j = 0; j <= text.length(); j++){
+					validStarts[j] = isValidStart(text, j);
+					validEnds[j] = isValidEnd(text, j);
+				}
+			}
+
+			List<Mention> res = new ArrayList<Mention>();
+			for (IDAutomaton automaton : automatons){
+				CustomAutomatonMatcher matcher = automaton.newCustomMatcher(text);
+				if (gated)
+					matcher.setBoundaries(validStarts, validEnds);
+
+				while (matcher.findWithDelimitedID(CustomRunAutomaton.delimiter))
+					if (gated || isValidMatch(text, matcher.start(), matcher.end()))
+						res.add(new Mention(automaton.getID(matcher.getMatchIDIndex(0)), matcher.start(), matcher.end(), null));
+			}
+			return res;
+		}
+	}
+
+	private static String randomName(Random r){
+		StringBuffer sb = new StringBuffer();
+		int numSyllables = 2 + r.nextInt(3);
+		for (int i = 0; i < numSyllables; i++)
+			sb.append(SYLLABLES[r.nextInt(SYLLABLES.length)]);
+		return sb.toString();
+	}
+
+	/**
+	 * @return automatons for a dictionary of numNames generated names (on the forms "genus species" and "g. species"), joined
+	 * into groups of multiJoin names as GenerateAutomatons does
+	 */
+	private static IDAutomaton[] generateAutomatons(Random r, List<String> names, int numNames, int multiJoin){
+		List<IDAutomaton> res = new ArrayList<IDAutomaton>();
+		List<Automaton> group = new ArrayList<Automaton>();
+
+		for (int i = 0; i < numNames; i++){
+			String genus = randomName(r);
+			String species = randomName(r);
+			names.add(genus + " " + species);
+
+			String regexp = "(" + genus + " " + species + "|" + genus.charAt(0) + "\\. " + species + ")";
+			group.add(new RegExp(regexp + CustomRunAutomaton.delimiter + "species:" + i).toAutomaton());
+
+			if (group.size() == multiJoin || i == numNames - 1){
+				Automaton a = BasicOperations.union(group);
+				a.minimize();
+				res.add(new CustomRunAutomaton(a, true));
+				group.clear();
+			}
+		}
+
+		return res.toArray(new IDAutomaton[0]);
+	}
+
+	private static String generateText(Random r, List<String> names, int length){
+		StringBuffer sb = new StringBuffer(length + 100);
+		while (sb.length() < length){
+			if (r.nextInt(20) == 0)
+				sb.append(names.get(r.nextInt(names.size())));
+			else if (r.nextInt(5) == 0)
+				sb.append(randomName(r));
+			else
+				sb.append(WORDS[r.nextInt(WORDS.length)]);
+			sb.append(r.nextInt(10) == 0 ? ". " : " ");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the time, in nanoseconds, of the fastest of repeats scans (the matches of the last scan are added to matches)
+	 */
+	private static long time(Matcher matcher, String text, int repeats, List<Mention> matches){
+		long best = Long.MAX_VALUE;
+		List<Mention> res = null;
+		for (int i = 0; i < repeats; i++){
+			long start = System.nanoTime();
+			res = matcher.match(text, null);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		matches.addAll(res);
+		return best;
+	}
+
+	public static void main(String[] args){
+		Random r = new Random(0);
+		List<String> names = new ArrayList<String>();
+
+		IDAutomaton[] automatons = args.length > 0 && !args[0].equals("-") ? AutomatonMatcher.loadMatcher(new File(args[0])).getAutomatons() : generateAutomatons(r, names, 5000, 1000);
+		String text = args.length > 1 && !args[1].equals("-") ? Misc.loadFile(new File(args[1])) : generateText(r, names, 2000000);
+		int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		List<Mention> ungatedMatches = new ArrayList<Mention>();
+		List<Mention> gatedMatches = new ArrayList<Mention>();
+
+		long ungated = time(new ScanMatcher(automatons, false), text, repeats, ungatedMatches);
+		long gated = time(new ScanMatcher(automatons, true), text, repeats, gatedMatches);
+
+		//the hash allows the matches to be compared between versions of the scanner
+		System.out.println(automatons.length + " automatons, " + text.length() + " characters, " + gatedMatches.size() + " matches (hash " + gatedMatches.toString().hashCode() + ")");
+		System.out.println("all offsets:    " + ungated / 1000000 + " ms");
+		System.out.println("word starts:    " + gated / 1000000 + " ms");
+
+		if (!ungatedMatches.toString().equals(gatedMatches.toString())){
+			System.out.println("The matches of the two scans differ");
+			System.exit(1);
+		}
+	}
+}
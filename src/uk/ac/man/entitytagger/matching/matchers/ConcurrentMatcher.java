@@ -1,6 +1,8 @@
 package uk.ac.man.entitytagger.matching.matchers;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.documentparser.input.DocumentIterator;
@@ -27,6 +29,9 @@ import martin.common.compthreads.Problem;
  * 
  * If an array of matchers had been given to the ThreadMatcher constructor, results would have been on the form ArrayList<TaggedDocument> tds = (ArrayList<TaggedDocument> master.next();. 
  * 
+ * Alternatively, batches() can be used to get problems that each match a batch of documents (through a single call to Matcher.matchAll()), returning a List<TaggedDocument>.
+ * The size of each batch adapts to how long documents have been taking to match, so that many short documents share the cost of one problem, while long documents still are matched one at a time.
+ * 
  * @author Martin
  */
 public class ConcurrentMatcher implements Iterator<Problem<TaggedDocument>> {
@@ -46,8 +51,38 @@ public class ConcurrentMatcher implements Iterator<Problem<TaggedDocument>> {
 		}
 	}
 
+	public class BatchMatchProblem implements Problem<List<TaggedDocument>> {
+		private Matcher matcher;
+		private List<Document> docs;
+		public BatchMatchProblem(Matcher matcher, List<Document> docs){
+			this.matcher = matcher;
+			this.docs = docs;
+		}
+		public List<TaggedDocument> compute() {
+			long start = System.nanoTime();
+
+			List<TaggedDocument> res = MatchOperations.matchDocuments(matcher, docs);
+
+			reportLatency(docs.size(), System.nanoTime() - start);
+
+			return res;
+		}
+	}
+
+	/**
+	 * the amount of matching time that a batch should take, once the per-document latency is known
+	 */
+	private static final long TARGET_BATCH_NANOS = 5000000L;
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+	public static final int DEFAULT_MAX_BATCH_CHARS = 256 * 1024;
+
 	private Matcher matcher;
 	private DocumentIterator documents;
+
+	private int maxBatchSize;
+	private int maxBatchChars;
+	private volatile double nanosPerDocument = -1;
 	
 	/**
 	 * Create an object which will do matching using a single matcher over a number of documents.
@@ -55,8 +90,21 @@ public class ConcurrentMatcher implements Iterator<Problem<TaggedDocument>> {
 	 * @param documents
 	 */
 	public ConcurrentMatcher(Matcher matcher, DocumentIterator documents){
+		this(matcher, documents, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_CHARS);
+	}
+
+	/**
+	 * Create an object which will do matching using a single matcher over a number of documents.
+	 * @param matcher
+	 * @param documents
+	 * @param maxBatchSize the maximum number of documents in a batch (see batches())
+	 * @param maxBatchChars the number of characters after which no more documents will be added to a batch (see batches())
+	 */
+	public ConcurrentMatcher(Matcher matcher, DocumentIterator documents, int maxBatchSize, int maxBatchChars){
 		this.matcher = matcher;
 		this.documents = documents;
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchChars = maxBatchChars;
 	}
 
 	public boolean hasNext() {
@@ -70,4 +118,86 @@ public class ConcurrentMatcher implements Iterator<Problem<TaggedDocument>> {
 	public void remove() {
 		throw new IllegalStateException("Not implemented.");		
 	}
+
+	/**
+	 * @return an iterator giving problems that each match a batch of documents (should not be mixed with calls to next())
+	 */
+	public Iterator<Problem<List<TaggedDocument>>> batches(){
+		return new Iterator<Problem<List<TaggedDocument>>>(){
+			public boolean hasNext() {
+				return documents.hasNext();
+			}
+			public Problem<List<TaggedDocument>> next() {
+				return nextBatch();
+			}
+			public void remove() {
+				throw new IllegalStateException("Not implemented.");
+			}
+		};
+	}
+
+	/**
+	 * @return a problem matching the next batch of documents. The batch is closed when it holds getBatchSize() documents or maxBatchChars characters.
+	 */
+	public ConcurrentMatcher.BatchMatchProblem nextBatch(){
+		int size = getBatchSize();
+		List<Document> docs = new ArrayList<Document>(size);
+		int chars = 0;
+
+		while (documents.hasNext() && docs.size() < size && chars < maxBatchChars){
+			Document doc = documents.next();
+			docs.add(doc);
+			chars += getLength(doc);
+		}
+
+		return new BatchMatchProblem(matcher, docs);
+	}
+
+	/**
+	 * @return the number of documents that are expected to take TARGET_BATCH_NANOS to match (1 until the first batch has completed)
+	 */
+	private int getBatchSize(){
+		double perDocument = nanosPerDocument;
+
+		if (perDocument < 0)
+			return 1;
+		if (perDocument == 0)
+			return maxBatchSize;
+
+		return (int) Math.max(1, Math.min(maxBatchSize, TARGET_BATCH_NANOS / perDocument));
+	}
+
+	/**
+	 * Called by the workers as batches complete, updating a moving average of the time it takes to match a document.
+	 * Concurrent updates may occasionally overwrite each other, which is fine for an estimate.
+	 */
+	private void reportLatency(int numDocuments, long nanos){
+		if (numDocuments == 0)
+			return;
+
+		double latency = (double) nanos / numDocuments;
+		double previous = nanosPerDocument;
+
+		nanosPerDocument = previous < 0 ? latency : 0.8 * previous + 0.2 * latency;
+	}
+
+	/**
+	 * @return the approximate number of characters of a document, without having to build its text
+	 */
+	private static int getLength(Document doc){
+		if (doc == null)
+			return 0;
+
+		int length = 0;
+		if (doc.getTitle() != null)
+			length += doc.getTitle().length();
+		if (doc.getAbs() != null)
+			length += doc.getAbs().length();
+		if (doc.getBody() != null)
+			length += doc.getBody().length();
+		if (doc.getRawContent() != null)
+			length += doc.getRawContent().length();
+
+		return length;
+	}
 }
@@ -9,6 +9,7 @@ import java.util.regex.Pattern;
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
 import uk.ac.man.entitytagger.generate.GenerateMatchers;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 
 public class DuplicationMatcher extends Matcher {
@@ -20,7 +21,29 @@ public class DuplicationMatcher extends Matcher {
 
 	@Override
 	public List<Mention> match(String text, Document doc) {
-		List<Mention> mentions = matcher.match(text,doc);
+		return match(new DocumentAnalysis(text, doc));
+	}
+
+	@Override
+	public List<Mention> match(DocumentAnalysis analysis) {
+		return duplicate(analysis.getText(), matcher.match(analysis));
+	}
+
+	@Override
+	public List<List<Mention>> matchBatch(List<DocumentAnalysis> analyses) {
+		List<List<Mention>> matches = matcher.matchBatch(analyses);
+
+		List<List<Mention>> res = new ArrayList<List<Mention>>(analyses.size());
+		for (int i = 0; i < analyses.size(); i++)
+			res.add(duplicate(analyses.get(i).getText(), matches.get(i)));
+
+		return res;
+	}
+
+	/**
+	 * @return mentions for every whole-word occurrence in the text of the terms of the given mentions
+	 */
+	private List<Mention> duplicate(String text, List<Mention> mentions) {
 		List<Mention> aux = new ArrayList<Mention>();
 		
 		Map<String,Mention> termToMention = new HashMap<String,Mention>();
@@ -43,4 +66,9 @@ public class DuplicationMatcher extends Matcher {
 		
 		return aux;
 	}
+
+	@Override
+	public boolean isDocumentKeyed(){
+		return matcher.isDocumentKeyed();
+	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package uk.ac.man.entitytagger.matching.matchers;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -8,6 +9,8 @@ import martin.common.Misc;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.MentionBuffer;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 import uk.ac.man.entitytagger.matching.Postprocessor;
 
@@ -29,13 +32,38 @@ public class MatchPostProcessor extends Matcher {
 	
 	@Override
 	public List<Mention> match(String text, Document doc) {
-		List<Mention> mentions = matcher.match(text,doc);
+		return match(new DocumentAnalysis(text, doc));
+	}
+
+	@Override
+	public List<Mention> match(DocumentAnalysis analysis) {
+		return postProcess(analysis, matcher.matchBuffer(analysis));
+	}
+
+	@Override
+	public List<List<Mention>> matchBatch(List<DocumentAnalysis> analyses) {
+		List<MentionBuffer> matches = matcher.matchBufferBatch(analyses);
+
+		List<List<Mention>> res = new ArrayList<List<Mention>>(analyses.size());
+		for (int i = 0; i < analyses.size(); i++)
+			res.add(postProcess(analyses.get(i), matches.get(i)));
+
+		return res;
+	}
+
+	/**
+	 * Post-processes the raw matches of a document, which are only turned into Mention objects once combined
+	 */
+	private List<Mention> postProcess(DocumentAnalysis analysis, MentionBuffer matches) {
+		String text = analysis.getText();
+		Document doc = analysis.getDocument();
 		
+		List<Mention> mentions = Matcher.combineMatches(matches);
+
 		if (doc == null)
 			for (Mention m : mentions)
 				m.setDocid("none");
 		
-		mentions = Matcher.combineMatches(mentions);
 		mentions = Matcher.disambiguate(text, mentions, mode);
 		
 		if (mapConvertIDs != null)
@@ -57,6 +85,11 @@ public class MatchPostProcessor extends Matcher {
 		return mentions;
 	}
 
+	@Override
+	public boolean isDocumentKeyed(){
+		return matcher.isDocumentKeyed();
+	}
+
 	private void convertIDs(List<Mention> mentions, Map<String, String> mapConvertIDs2) {
 		for (Mention m : mentions){
 			String[] ids = m.getIds();
@@ -2,48 +2,210 @@ package uk.ac.man.entitytagger.matching.matchers;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import martin.common.Function;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.MentionBuffer;
+import uk.ac.man.entitytagger.MentionIntervals;
 import uk.ac.man.entitytagger.doc.TaggedDocument;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 import uk.ac.man.entitytagger.matching.Postprocessor;
 
 public class MultiMatcher extends Matcher{
 	private List<Matcher> matchers;
 	private boolean equalMatchers;
+
+	/**
+	 * whether the matchers are run concurrently for each document
+	 */
+	private boolean concurrent;
+
+	/**
+	 * executor shared by all concurrent MultiMatchers, running all matchers except the first for each document
+	 */
+	private static ExecutorService executor = null;
 	
 	public MultiMatcher(List<Matcher> matchers, boolean equalMatchers){
+		this(matchers, equalMatchers, false);
+	}
+
+	/**
+	 * @param matchers the matchers, in order of priority
+	 * @param equalMatchers if false, mentions overlapping mentions from earlier matchers are removed
+	 * @param concurrent whether the matchers should be run concurrently for each document (the results are the same, but the
+	 * latency of a document becomes that of the slowest matcher rather than the sum of them, e.g. for network or database matchers)
+	 */
+	public MultiMatcher(List<Matcher> matchers, boolean equalMatchers, boolean concurrent){
 		this.matchers = matchers;
 		this.equalMatchers = equalMatchers;
+		this.concurrent = concurrent && matchers.size() > 1;
+	}
+
+	private static synchronized ExecutorService getExecutor(){
+		if (executor == null)
+			executor = Executors.newCachedThreadPool(new ThreadFactory(){
+				public Thread newThread(Runnable r) {
+					//should not keep the program alive once matching is done
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return executor;
 	}
 
 	public List<Mention> match(String text, Document doc){
+		return match(new DocumentAnalysis(text, doc));
+	}
+
+	public List<Mention> match(DocumentAnalysis analysis){
+		List<DocumentAnalysis> analyses = new ArrayList<DocumentAnalysis>(1);
+		analyses.add(analysis);
+		return matchBatch(analyses).get(0);
+	}
+
+	public List<List<Mention>> matchBatch(final List<DocumentAnalysis> analyses){
+		List<List<List<Mention>>> matchesByMatcher = matchEach(new Function<List<List<Mention>>>(){
+			public List<List<Mention>> function(Object[] args) {
+				return ((Matcher) args[0]).matchBatch(analyses);
+			}
+		});
+
+		List<List<Mention>> res = new ArrayList<List<Mention>>(analyses.size());
+		for (int i = 0; i < analyses.size(); i++){
+			List<List<Mention>> matches = new ArrayList<List<Mention>>(matchers.size());
+			for (List<List<Mention>> m : matchesByMatcher)
+				matches.add(m.get(i));
+			res.add(merge(matches));
+		}
+
+		return res;
+	}
+
+	public MentionBuffer matchBuffer(DocumentAnalysis analysis){
+		List<DocumentAnalysis> analyses = new ArrayList<DocumentAnalysis>(1);
+		analyses.add(analysis);
+		return matchBufferBatch(analyses).get(0);
+	}
+
+	public List<MentionBuffer> matchBufferBatch(final List<DocumentAnalysis> analyses){
+		List<List<MentionBuffer>> matchesByMatcher = matchEach(new Function<List<MentionBuffer>>(){
+			public List<MentionBuffer> function(Object[] args) {
+				return ((Matcher) args[0]).matchBufferBatch(analyses);
+			}
+		});
+
+		List<MentionBuffer> res = new ArrayList<MentionBuffer>(analyses.size());
+		for (int i = 0; i < analyses.size(); i++){
+			List<MentionBuffer> matches = new ArrayList<MentionBuffer>(matchers.size());
+			for (List<MentionBuffer> m : matchesByMatcher)
+				matches.add(m.get(i));
+			res.add(merge(analyses.get(i), matches));
+		}
+
+		return res;
+	}
+
+	/**
+	 * @param matchesByMatcher the matches of each matcher for a document
+	 * @return the combined matches, in the same way as merge(List)
+	 */
+	private MentionBuffer merge(DocumentAnalysis analysis, List<MentionBuffer> matchesByMatcher){
+		if (matchesByMatcher.size() == 1)
+			return matchesByMatcher.get(0);
+
+		Document doc = analysis.getDocument();
+		MentionBuffer matches = new MentionBuffer(analysis.getText(), doc != null ? doc.getID() : null);
+
+		MentionIntervals previous = equalMatchers ? null : new MentionIntervals();
+
+		for (MentionBuffer localMatches : matchesByMatcher){
+			int matcheslength = matches.size();
+
+			for (int i = 0; i < localMatches.size(); i++)
+				if (previous == null || !previous.overlaps(localMatches.getDocid(i), localMatches.getStart(i), localMatches.getEnd(i)))
+					matches.add(localMatches, i);
+
+			if (previous != null)
+				for (int j = matcheslength; j < matches.size(); j++)
+					previous.add(matches.getDocid(j), matches.getStart(j), matches.getEnd(j));
+		}
+
+		return matches;
+	}
+
+	/**
+	 * @param matchesByMatcher the matches of each matcher for a document
+	 * @return the combined matches
+	 */
+	private List<Mention> merge(List<List<Mention>> matchesByMatcher){
 		List<Mention> matches = new ArrayList<Mention>();
+
+		//the matches of earlier matchers, for overlap tests
+		MentionIntervals previous = equalMatchers ? null : new MentionIntervals();
 	
-		for (Matcher m : matchers){
-			List<Mention> localMatches = m.match(text, doc);
+		for (List<Mention> localMatches : matchesByMatcher){
 			int matcheslength = matches.size();
 	
 			//only add matches that do not overlap with previously found matches
 			//(i.e. earlier matchers are prioritized over later matchers)
-			for (int j = 0; j < localMatches.size(); j++){
-				boolean overlapping = false;
-				if (!equalMatchers){
-					for (int k = 0; k < matcheslength; k++)
-						if (localMatches.get(j).overlaps(matches.get(k))){
-							overlapping = true;
-							break;
-						}
-				}
-				if (!overlapping)
-					matches.add(localMatches.get(j));
-			}
+			for (Mention m : localMatches)
+				if (previous == null || !previous.overlaps(m))
+					matches.add(m);
+
+			if (previous != null)
+				for (int j = matcheslength; j < matches.size(); j++)
+					previous.add(matches.get(j));
 		}
 		
 		return matches;
 	}
 
+	/**
+	 * @param batch called with each matcher, returning the matches of the matcher for each text
+	 * @return the matches of each matcher for each text, in the same order as the matchers
+	 */
+	private <E> List<List<E>> matchEach(final Function<List<E>> batch){
+		List<List<E>> res = new ArrayList<List<E>>(matchers.size());
+
+		if (!concurrent){
+			for (Matcher m : matchers)
+				res.add(batch.function(new Object[]{m}));
+			return res;
+		}
+
+		List<Future<List<E>>> futures = new ArrayList<Future<List<E>>>(matchers.size()-1);
+		for (int i = 1; i < matchers.size(); i++){
+			final Matcher m = matchers.get(i);
+			futures.add(getExecutor().submit(new Callable<List<E>>(){
+				public List<E> call() {
+					return batch.function(new Object[]{m});
+				}
+			}));
+		}
+
+		res.add(batch.function(new Object[]{matchers.get(0)}));
+
+		try{
+			for (Future<List<E>> f : futures)
+				res.add(f.get());
+		} catch (Exception e){
+			System.err.println(e);
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		return res;
+	}
+
 	public TaggedDocument matchDocument(Document doc){
 		String text = doc.toString();
 	
@@ -56,4 +218,12 @@ public class MultiMatcher extends Matcher{
 	public int size() {
 		return matchers.size();
 	}
+
+	@Override
+	public boolean isDocumentKeyed(){
+		for (Matcher m : matchers)
+			if (m.isDocumentKeyed())
+				return true;
+		return false;
+	}
 }
@@ -4,6 +4,8 @@ import java.io.File;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -13,9 +15,14 @@ import martin.common.Misc;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 
 public class PrecomputedMatcher extends Matcher {
+	/**
+	 * the order in which mentions are retrieved from the database, so that single-document and batch queries give the same order
+	 */
+	private static final String ORDER = " ORDER BY start,end,entity";
 
 	private Map<String,List<Mention>> map;
 	private Connection conn;
@@ -45,7 +52,7 @@ public class PrecomputedMatcher extends Matcher {
 		if (conn != null){
 			List<Mention> mentions = new LinkedList<Mention>();
 			try {
-				ResultSet rs = conn.createStatement().executeQuery("SELECT entity,start,end,text,comment FROM " + table + " WHERE document='" + id + "'");
+				ResultSet rs = conn.createStatement().executeQuery("SELECT entity,start,end,text,comment FROM " + table + " WHERE document='" + id + "'" + ORDER);
 				while (rs.next()){
 					String[] ids = rs.getString(1).split("\\|");
 					int start = rs.getInt(2);
@@ -79,11 +86,108 @@ public class PrecomputedMatcher extends Matcher {
 		return matches;
 	}
 
+	/**
+	 * When backed by a database, retrieves the mentions of all the documents with a single query rather than one query per document.
+	 * The database may return the document ids in another form than they were requested in (e.g. under case-insensitive or
+	 * pad-space collations), so rows are assigned to the requested ids through documentKey(). If a row does not match any
+	 * requested id that way, the documents are instead queried one at a time.
+	 */
+	@Override
+	public List<List<Mention>> matchBatch(List<DocumentAnalysis> analyses) {
+		if (conn == null)
+			return super.matchBatch(analyses);
+
+		Map<String,List<Mention>> byID = new HashMap<String,List<Mention>>();
+		Map<String,List<String>> idsByKey = new HashMap<String,List<String>>();
+		StringBuffer ids = new StringBuffer();
+
+		for (DocumentAnalysis analysis : analyses){
+			Document doc = analysis.getDocument();
+			if (doc == null || doc.getID() == null || doc.getID().length() == 0)
+				throw new IllegalStateException("A PrecomputedMatcher must be called with a document to resolve the ID");
+
+			if (!byID.containsKey(doc.getID())){
+				byID.put(doc.getID(), new LinkedList<Mention>());
+				if (!idsByKey.containsKey(documentKey(doc.getID())))
+					idsByKey.put(documentKey(doc.getID()), new ArrayList<String>(1));
+				idsByKey.get(documentKey(doc.getID())).add(doc.getID());
+				ids.append(ids.length() > 0 ? ",'" : "'").append(doc.getID()).append("'");
+			}
+		}
+
+		if (ids.length() > 0){
+			try {
+				ResultSet rs = conn.createStatement().executeQuery("SELECT document,entity,start,end,text,comment FROM " + table + " WHERE document IN (" + ids + ")" + ORDER);
+				while (rs.next()){
+					List<String> requested = idsByKey.get(documentKey(rs.getString(1)));
+					if (requested == null){
+						rs.close();
+						return super.matchBatch(analyses);
+					}
+
+					String[] entities = rs.getString(2).split("\\|");
+					int start = rs.getInt(3);
+					int end = rs.getInt(4);
+					String term = rs.getString(5);
+					String comment = rs.getString(6);
+
+					//a row matches each of the requested ids that the single-document query would have returned it for
+					for (String id : requested){
+						Mention m = new Mention(entities.clone(),start,end,term);
+						m.setComment(comment);
+						m.setDocid(id);
+						byID.get(id).add(m);
+					}
+				}
+				rs.close();
+			} catch (Exception e){
+				System.err.println(e);
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		List<List<Mention>> res = new ArrayList<List<Mention>>(analyses.size());
+		Set<String> returned = new HashSet<String>();
+		for (DocumentAnalysis analysis : analyses){
+			String id = analysis.getDocument().getID();
+			List<Mention> mentions = byID.get(id);
+
+			//documents occurring more than once in the batch get separate copies, as separate queries would have given them
+			if (!returned.add(id)){
+				List<Mention> copy = new LinkedList<Mention>();
+				for (Mention m : mentions)
+					copy.add(m.clone());
+				mentions = copy;
+			}
+
+			res.add(mentions);
+		}
+
+		return res;
+	}
+
+	/**
+	 * @return the form of a document id that is compared when assigning rows to requested ids, ignoring case and trailing spaces
+	 * (as the default MySQL collations do)
+	 */
+	private static String documentKey(String id){
+		int end = id.length();
+		while (end > 0 && id.charAt(end - 1) == ' ')
+			end--;
+		return id.substring(0, end).toLowerCase();
+	}
+
 	@Override
 	public int size() {
 		return map.size();
 	}
 
+	@Override
+	public boolean isDocumentKeyed(){
+		return true;
+	}
+
 	public Map<String,List<Mention>> getStoredData(){
 		return map;
 	}
@@ -4,24 +4,30 @@ import java.util.LinkedList;
 import java.util.List;
 
 import martin.common.Pair;
-import martin.common.SentenceSplitter;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 
 public class SentenceMatcher extends Matcher {
 
 	@Override
 	public List<Mention> match(String text, Document doc) {
+		return match(new DocumentAnalysis(text, doc));
+	}
+
+	@Override
+	public List<Mention> match(DocumentAnalysis analysis) {
+		String text = analysis.getText();
+		Document doc = analysis.getDocument();
 		
-		SentenceSplitter sp = new SentenceSplitter(text);
 		List<Mention> aux = new LinkedList<Mention>();
 		String docID = doc != null ? doc.getID() : null;
 		
 		int i = 0;
 		
-		for (Pair<Integer> coords : sp){
+		for (Pair<Integer> coords : analysis.getSentences()){
 		
 			int s = coords.getX();
 			int e = coords.getY();
@@ -16,7 +16,10 @@ import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import uk.ac.man.documentparser.dataholders.Document;
+import uk.ac.man.entitytagger.IDTable;
 import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.MentionBuffer;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 
 import martin.common.CacheMap;
@@ -27,10 +30,12 @@ import martin.common.Sizeable;
 import martin.common.StreamIterator;
 
 public class VariantDictionaryMatcher extends Matcher implements Sizeable {
-	private String[][] termToIdsMap;
+	/**
+	 * the ids of each term, as IDTable entry numbers
+	 */
+	private int[][] termToIdsMap;
 	private String[] terms;
 	private boolean ignoreCase;
-	private Pattern splitPattern;
 
 	private String[] tableNames;
 	private String tag;
@@ -39,10 +44,25 @@ public class VariantDictionaryMatcher extends Matcher implements Sizeable {
 
 	public VariantDictionaryMatcher(String[][] termToIdsMap, String[] terms, boolean ignoreCase) {
 
-		this.termToIdsMap = termToIdsMap;
+		this.termToIdsMap = toEntries(termToIdsMap);
 		this.terms = terms;
 		this.ignoreCase = ignoreCase;
-		this.splitPattern = Pattern.compile("\\b");
+	}
+
+	/**
+	 * @return the ids of each term, interned in the global IDTable
+	 */
+	private static int[][] toEntries(String[][] termToIdsMap){
+		IDTable table = IDTable.getGlobal();
+		int[][] res = new int[termToIdsMap.length][];
+
+		for (int i = 0; i < res.length; i++){
+			res[i] = new int[termToIdsMap[i].length];
+			for (int j = 0; j < res[i].length; j++)
+				res[i][j] = table.getEntry(termToIdsMap[i][j]);
+		}
+
+		return res;
 	}
 
 	public int size(){
@@ -55,7 +75,6 @@ public class VariantDictionaryMatcher extends Matcher implements Sizeable {
 		this.terms = null;
 
 		this.ignoreCase = ignoreCase;
-		this.splitPattern = Pattern.compile("\\b");
 
 		this.conn = conn;
 		this.tableNames =  tableNames;
@@ -99,7 +118,7 @@ public class VariantDictionaryMatcher extends Matcher implements Sizeable {
 		for (int j = 0; j < terms.length; j++)
 			termToIdsMapArray[j] = termToIdsMap.get(terms[j]).toArray(new String[0]);
 
-		this.termToIdsMap = termToIdsMapArray;
+		this.termToIdsMap = toEntries(termToIdsMapArray);
 		this.terms = terms;	
 	}
 	
@@ -276,42 +295,49 @@ public class VariantDictionaryMatcher extends Matcher implements Sizeable {
 
 	@Override
 	public List<Mention> match(String text, Document doc) {
-		if (terms == null || termToIdsMap == null)
-			init();
-
-		List<Mention> matches = new ArrayList<Mention>();
+		return match(new DocumentAnalysis(text, doc));
+	}
 
-		String matchText = this.ignoreCase ? text.toLowerCase() : text;
+	@Override
+	public List<Mention> match(DocumentAnalysis analysis) {
+		return matchBuffer(analysis).toMentions();
+	}
 
-		String docid = doc != null ? doc.getID() : null;
-		java.util.regex.Matcher splitter = this.splitPattern.matcher(matchText);
+	/**
+	 * Performs matching, storing the matches in a buffer rather than as Mention objects. The mention texts are taken from
+	 * the lower-cased text if ignoring case.
+	 */
+	@Override
+	public MentionBuffer matchBuffer(DocumentAnalysis analysis) {
+		if (terms == null || termToIdsMap == null)
+			init();
 
-		List<Pair<Integer>> tokenLocations = new ArrayList<Pair<Integer>>();
+		String matchText = analysis.getText(this.ignoreCase);
 
-		int prev = -1;
-		while (splitter.find()){
-			if (prev != -1 && Character.isLetterOrDigit(matchText.charAt(prev))){
-				tokenLocations.add(new Pair<Integer>(prev, splitter.start()));
-			}
+		Document doc = analysis.getDocument();
+		MentionBuffer matches = new MentionBuffer(matchText, doc != null ? doc.getID() : null);
 
-			prev = splitter.start();
-		}
+		List<Pair<Integer>> tokenLocations = analysis.getTokenLocations(this.ignoreCase);
 
 		for (int i = 0; i < tokenLocations.size(); i++){
 			Pair<Integer> p = tokenLocations.get(i);
 			List<Integer> foundMatches = getMatchIds(tokenLocations, i, matchText);
 
-			for (int fm : foundMatches){
-				String term = ignoreCase ? matchText.substring(p.getX(), p.getX() + terms[fm].length()) : terms[fm];
-				Mention m = new Mention(termToIdsMap[fm].clone(), p.getX(), p.getX() + term.length(), term);
-				m.setDocid(docid);
-				matches.add(m);
-			}
+			for (int fm : foundMatches)
+				matches.add(p.getX(), p.getX() + terms[fm].length(), termToIdsMap[fm]);
 		}
 
 		return matches;
 	}
 
+	@Override
+	public List<MentionBuffer> matchBufferBatch(List<DocumentAnalysis> analyses) {
+		List<MentionBuffer> res = new ArrayList<MentionBuffer>(analyses.size());
+		for (DocumentAnalysis analysis : analyses)
+			res.add(matchBuffer(analysis));
+		return res;
+	}
+
 	private List<Integer> getMatchIds(List<Pair<Integer>> tokenLocations, int i, String matchText) {
 		Pair<Integer> p = tokenLocations.get(i);
 		List<Integer> res = new LinkedList<Integer>();
@@ -351,9 +377,12 @@ public class VariantDictionaryMatcher extends Matcher implements Sizeable {
 		for (String t : terms)
 			size += t.length();
 		
+		IDTable table = IDTable.getGlobal();
 		for (int i = 0; i < termToIdsMap.length; i++)
-			for (int j = 0; j < termToIdsMap[i].length; j++)
-				size += termToIdsMap[i][j].length();
+			for (int j = 0; j < termToIdsMap[i].length; j++){
+				int entry = termToIdsMap[i][j];
+				size += table.getID(entry).length() + (table.getLine(entry) != null ? table.getLine(entry).length() + 1 : 0);
+			}
 		
 		this.size = size;
 		return size;				
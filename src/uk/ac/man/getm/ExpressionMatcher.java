@@ -2,15 +2,18 @@ package uk.ac.man.getm;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import martin.common.Function;
 import martin.common.Pair;
-import martin.common.SentenceSplitter;
 
 import uk.ac.man.documentparser.dataholders.Document;
 import uk.ac.man.entitytagger.Mention;
-import uk.ac.man.entitytagger.doc.TaggedDocument;
-import uk.ac.man.entitytagger.doc.TaggedDocument.Format;
+import uk.ac.man.entitytagger.MentionIndex;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
 import uk.ac.man.entitytagger.matching.Matcher;
 
 /**
@@ -24,7 +27,31 @@ public class ExpressionMatcher extends Matcher {
 	private Matcher anatomyMatcher;
 	private Matcher triggerMatcher;
 
+	/**
+	 * the number of groups that the sub-matchers are split into for each document, each group running concurrently
+	 */
+	private int fanOut;
+
+	/**
+	 * executor shared by all documents, running the sub-matcher groups that are not run by the calling thread (null if fanOut == 1)
+	 */
+	private ExecutorService executor = null;
+
+	/**
+	 * if true, only sentences containing triggers are passed to the gene, species and anatomy matchers
+	 */
+	private boolean triggerFirst = false;
+
 	public ExpressionMatcher(Matcher speciesMatcher, Matcher geneMatcher, Matcher anatomyMatcher, Matcher triggerMatcher){
+		this(speciesMatcher, geneMatcher, anatomyMatcher, triggerMatcher, 1);
+	}
+
+	/**
+	 * @param fanOut the number of sub-matchers (1-4) that can run concurrently for a single document. Useful when sub-matchers
+	 * spend most of their time waiting for e.g. a remote matching server or a database, as the latency of a document then
+	 * becomes the longest wait rather than the sum of them.
+	 */
+	public ExpressionMatcher(Matcher speciesMatcher, Matcher geneMatcher, Matcher anatomyMatcher, Matcher triggerMatcher, int fanOut){
 		assert(speciesMatcher != null);
 		assert(geneMatcher != null);
 		assert(anatomyMatcher != null);
@@ -33,6 +60,76 @@ public class ExpressionMatcher extends Matcher {
 		this.geneMatcher = geneMatcher;
 		this.anatomyMatcher = anatomyMatcher;
 		this.triggerMatcher = triggerMatcher;
+		this.fanOut = Math.max(1, Math.min(4, fanOut));
+
+		if (this.fanOut > 1)
+			this.executor = Executors.newCachedThreadPool(new ThreadFactory(){
+				public Thread newThread(Runnable r) {
+					//should not keep the program alive once matching is done
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	}
+
+	/**
+	 * Sets whether the trigger matcher should be run first, and the (more expensive) gene, species and anatomy matchers
+	 * then only over the sentences containing triggers. Since mentions outside such sentences are never used, this gives
+	 * the same results, except for matchers whose results for a sentence depend on the rest of the document (e.g. through
+	 * acronym definitions or document-level disambiguation). Matchers that look up their mentions by document id (e.g.
+	 * precomputed gene mentions, see Matcher.isDocumentKeyed()) are still run on the full documents.
+	 */
+	public void setTriggerFirst(boolean triggerFirst){
+		this.triggerFirst = triggerFirst;
+	}
+
+	/**
+	 * Runs the matchers over the texts. The matchers are split into fanOut groups, where one group is run by the calling thread
+	 * and the others on the shared executor, and the results are joined before returning.
+	 * @return the mentions found by each matcher in each text, in the same order as the matchers
+	 */
+	private List<List<List<Mention>>> matchEach(final Matcher[] matchers, final List<DocumentAnalysis> analyses){
+		if (executor == null)
+			return matchGroup(matchers, 0, 1, analyses);
+
+		List<Future<List<List<List<Mention>>>>> futures = new ArrayList<Future<List<List<List<Mention>>>>>(fanOut-1);
+		for (int g = 1; g < fanOut; g++){
+			final int group = g;
+			futures.add(executor.submit(new Callable<List<List<List<Mention>>>>(){
+				public List<List<List<Mention>>> call() {
+					return matchGroup(matchers, group, fanOut, analyses);
+				}
+			}));
+		}
+
+		List<List<List<List<Mention>>>> groups = new ArrayList<List<List<List<Mention>>>>(fanOut);
+		groups.add(matchGroup(matchers, 0, fanOut, analyses));
+
+		try{
+			for (Future<List<List<List<Mention>>>> f : futures)
+				groups.add(f.get());
+		} catch (Exception e){
+			System.err.println(e);
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		List<List<List<Mention>>> res = new ArrayList<List<List<Mention>>>(matchers.length);
+		for (int i = 0; i < matchers.length; i++)
+			res.add(groups.get(i % fanOut).get(i / fanOut));
+
+		return res;
+	}
+
+	/**
+	 * @return the mentions found by matchers group, group + numGroups, group + 2*numGroups, ...
+	 */
+	private static List<List<List<Mention>>> matchGroup(Matcher[] matchers, int group, int numGroups, List<DocumentAnalysis> analyses){
+		List<List<List<Mention>>> res = new ArrayList<List<List<Mention>>>();
+		for (int i = group; i < matchers.length; i += numGroups)
+			res.add(matchers[i].matchBatch(analyses));
+		return res;
 	}
 
 	/**
@@ -42,44 +139,97 @@ public class ExpressionMatcher extends Matcher {
 	 * @return a list of all gene expression mentions occuring in the text
 	 */
 	public List<Mention> match(String text, Document d){
-		List<Mention> genes = geneMatcher.match(text,d);
-		List<Mention> species = speciesMatcher.match(text,d);
-		List<Mention> anatomy = anatomyMatcher.match(text,d);
-		List<Mention> triggers = triggerMatcher.match(text, d);
+		return match(new DocumentAnalysis(text, d));
+	}
+
+	/**
+	 * Identify gene expression mentions in text and associate them to gene and anatomical mentions. The analysis (and thereby
+	 * e.g. the lower-cased text and sentence boundaries) is shared with the sub-matchers.
+	 * @param analysis the text and document
+	 * @return a list of all gene expression mentions occuring in the text
+	 */
+	public List<Mention> match(DocumentAnalysis analysis){
+		List<DocumentAnalysis> analyses = new ArrayList<DocumentAnalysis>(1);
+		analyses.add(analysis);
+		return matchBatch(analyses).get(0);
+	}
+
+	/**
+	 * Identify gene expression mentions in a batch of texts. Each sub-matcher is called once for the whole batch.
+	 * @param analyses the texts and documents
+	 * @return the gene expression mentions occuring in each text
+	 */
+	public List<List<Mention>> matchBatch(List<DocumentAnalysis> analyses){
+		List<List<Mention>> genes, species, anatomy, triggers;
+
+		if (triggerFirst){
+			triggers = triggerMatcher.matchBatch(analyses);
+			List<List<List<Mention>>> matches = matchTriggerSentences(analyses, triggers);
+			genes = matches.get(0);
+			species = matches.get(1);
+			anatomy = matches.get(2);
+		} else {
+			List<List<List<Mention>>> matches = matchEach(new Matcher[]{geneMatcher, speciesMatcher, anatomyMatcher, triggerMatcher}, analyses);
+			genes = matches.get(0);
+			species = matches.get(1);
+			anatomy = matches.get(2);
+			triggers = matches.get(3);
+		}
+
+		List<List<Mention>> res = new ArrayList<List<Mention>>(analyses.size());
+		for (int i = 0; i < analyses.size(); i++)
+			res.add(associate(analyses.get(i), genes.get(i), species.get(i), anatomy.get(i), triggers.get(i)));
+
+		return res;
+	}
+
+	/**
+	 * Associates the triggers of each sentence of a text with the gene and anatomical mentions of the sentence
+	 * @return the gene expression mentions of the text
+	 */
+	private List<Mention> associate(DocumentAnalysis analysis, List<Mention> genes, List<Mention> species, List<Mention> anatomy, List<Mention> triggerList){
+		String text = analysis.getText();
 
 		List<Mention> res = new ArrayList<Mention>();
 
 		filterAnatomy(anatomy,text);
 
-		SentenceSplitter sentences = new SentenceSplitter(text);
+		//indices allowing the mentions of each sentence to be found through binary search, regardless of the order the matchers returned them in
+		MentionIndex triggers = new MentionIndex(triggerList);
+		MentionIndex geneIndex = new MentionIndex(genes);
+		MentionIndex anatomyIndex = new MentionIndex(anatomy);
+		MentionIndex speciesIndex = new MentionIndex(species);
 
-		for (Pair<Integer> sc : sentences){
+		for (Pair<Integer> sc : analysis.getSentences()){
 			//sentence start/end coordinates
 			int s = sc.getX();
 			int e = sc.getY();
 			
 			//get the triggers occuring in the sentence
-			List<Mention> sTriggers = Mention.getMentionsInRange(triggers,s,e);
+			List<Mention> sTriggers = triggers.getMentionsInRange(s,e);
 			
 			if (sTriggers.size() > 0){
 				//get the gene, anatomical and species mentions occuring in the sentence
-				List<Mention> sGenes = Mention.getMentionsInRange(genes,s,e);
-				List<Mention> sAnatomy = Mention.getMentionsInRange(anatomy,s,e);
-				List<Mention> sSpecies = Mention.getMentionsInRange(species,s,e);
+				MentionIndex sGenes = geneIndex.getIndexInRange(s,e);
+				List<Mention> sAnatomyList = anatomyIndex.getMentionsInRange(s,e);
+				MentionIndex sSpecies = speciesIndex.getIndexInRange(s,e);
 
 				//remove anatomical locations overlapping with genes (some genes can mistakenly be identified as anatomical locations by the NER)
-				for (Mention m : sGenes)
-					for (int i = 0; i < sAnatomy.size(); i++)
-						if (m.overlaps(sAnatomy.get(i)))
-							sAnatomy.remove(i--);
+				for (int i = 0; i < sAnatomyList.size(); i++)
+					if (sGenes.overlapsAny(sAnatomyList.get(i)))
+						sAnatomyList.remove(i--);
+
+				MentionIndex sAnatomy = new MentionIndex(sAnatomyList);
 
 				if (sGenes.size() > 0 && sAnatomy.size() > 0){
+					//the HTML context is only rendered if requested, from a sentence shared by all its mentions
+					SentenceContext sentence = new SentenceContext(text, s, e);
+
 					for (Mention trigger : sTriggers){
 						//for each trigger in the sentence, associate it with a gene and anatomical location
 						ExpressionMention em = associate(trigger, sGenes, sAnatomy, sSpecies, text);
 
-						//get a nice context string suitable for HTML display and associate it with the mention
-						em.setContext(getContext(text,s,e,em.getTrigger(),em.getActors(),em.getLocations()));
+						em.setSentence(sentence);
 
 						res.add(em);
 					}
@@ -91,44 +241,143 @@ public class ExpressionMatcher extends Matcher {
 	}
 
 	/**
-	 * Creates a HTML-format context string for a gene expression mention
-	 * @param text
-	 * @param s the start of the context substring
-	 * @param e the end of the context substring
-	 * @param trigger trigger mention
-	 * @param mentions2 gene mentions
-	 * @param mentions3 anatomical mentions
-	 * @return a string such as e.g. "We have found that IL-2 is expressed in T-cells." with IL-2, expressed and T-cells italic and underlined.
+	 * Runs the gene, species and anatomy matchers over the sentences that contain triggers only. For each text, the sentences are
+	 * concatenated (separated by newlines), and the coordinates of the resulting mentions are mapped back to the full text.
+	 * Matchers that look up their mentions by document id (see Matcher.isDocumentKeyed()) return coordinates in the full
+	 * text whatever text they are given, so they are instead run on the full texts, keeping the mentions in the trigger sentences.
+	 * @return the gene, species and anatomy mentions of each text, with coordinates in the text
 	 */
-	private String getContext(String text, int s, int e, Mention trigger,
-			Mention[] mentions2, Mention[] mentions3) {
-
-		String context = text.substring(s,e);
-		context = context.replace('\t', ' ');
-		context = context.replace('\r', ' ');
-		context = context.replace('\n', ' ');
-
-		List<Mention> mentions = new ArrayList<Mention>(1 + mentions2.length + mentions3.length);
-		mentions.add(trigger.clone());
-		for (Mention m : mentions2)
-			mentions.add(m.clone());
-		for (Mention m : mentions3)
-			mentions.add(m.clone());
-		for (Mention m : mentions){
-			m.setStart(m.getStart()-s);
-			m.setEnd(m.getEnd()-s);			
+	private List<List<List<Mention>>> matchTriggerSentences(List<DocumentAnalysis> analyses, List<List<Mention>> triggerLists){
+		List<DocumentAnalysis> subAnalyses = new ArrayList<DocumentAnalysis>();
+		List<DocumentAnalysis> fullAnalyses = new ArrayList<DocumentAnalysis>();
+		List<List<Integer>> subStarts = new ArrayList<List<Integer>>();
+		List<List<Integer>> textStarts = new ArrayList<List<Integer>>();
+		List<List<Integer>> textEnds = new ArrayList<List<Integer>>();
+
+		for (int i = 0; i < analyses.size(); i++){
+			DocumentAnalysis analysis = analyses.get(i);
+			String text = analysis.getText();
+			MentionIndex triggers = new MentionIndex(triggerLists.get(i));
+
+			StringBuffer sb = new StringBuffer();
+			List<Integer> docSubStarts = new ArrayList<Integer>();
+			List<Integer> docTextStarts = new ArrayList<Integer>();
+			List<Integer> docTextEnds = new ArrayList<Integer>();
+
+			for (Pair<Integer> sc : analysis.getSentences()){
+				int s = sc.getX();
+				int e = sc.getY();
+
+				if (triggers.hasMentionsInRange(s,e)){
+					docSubStarts.add(sb.length());
+					docTextStarts.add(s);
+					docTextEnds.add(e);
+					sb.append(text, s, e);
+					sb.append('\n');
+				}
+			}
+
+			//texts without trigger sentences are not matched
+			if (docSubStarts.size() > 0){
+				subAnalyses.add(new DocumentAnalysis(sb.toString(), analysis.getDocument()));
+				fullAnalyses.add(analysis);
+				subStarts.add(docSubStarts);
+				textStarts.add(docTextStarts);
+				textEnds.add(docTextEnds);
+			} else {
+				subStarts.add(null);
+				textStarts.add(null);
+				textEnds.add(null);
+			}
 		}
 
-		StringBuffer sb = TaggedDocument.toHTML(context, mentions, Format.HTML, false, new Function<Pair<String>>() {
-			public Pair<String> function(Object[] args) {
-				//Mention m = (Mention) args[0];
-				//Format f = (Format) args[1];
-				//boolean link = (Boolean) args[2];
-				return new Pair<String>("<u><i>","</i></u>");
+		Matcher[] matchers = new Matcher[]{geneMatcher, speciesMatcher, anatomyMatcher};
+		List<Matcher> textMatchers = new ArrayList<Matcher>();
+		List<Matcher> keyedMatchers = new ArrayList<Matcher>();
+		for (Matcher m : matchers)
+			if (m.isDocumentKeyed())
+				keyedMatchers.add(m);
+			else
+				textMatchers.add(m);
+
+		List<List<List<Mention>>> textMatches = subAnalyses.size() > 0 && textMatchers.size() > 0 ? matchEach(textMatchers.toArray(new Matcher[0]), subAnalyses) : null;
+		List<List<List<Mention>>> keyedMatches = fullAnalyses.size() > 0 && keyedMatchers.size() > 0 ? matchEach(keyedMatchers.toArray(new Matcher[0]), fullAnalyses) : null;
+
+		List<List<List<Mention>>> res = new ArrayList<List<List<Mention>>>(3);
+		for (int k = 0; k < 3; k++){
+			boolean keyed = matchers[k].isDocumentKeyed();
+			List<List<Mention>> matches = keyed ? (keyedMatches != null ? keyedMatches.get(keyedMatchers.indexOf(matchers[k])) : null) :
+				(textMatches != null ? textMatches.get(textMatchers.indexOf(matchers[k])) : null);
+
+			List<List<Mention>> mapped = new ArrayList<List<Mention>>(analyses.size());
+			int sub = 0;
+
+			for (int i = 0; i < analyses.size(); i++){
+				List<Mention> docMapped = new ArrayList<Mention>();
+
+				if (subStarts.get(i) != null){
+					for (Mention m : matches.get(sub++)){
+						if (keyed){
+							//already in text coordinates, only the mentions within trigger sentences are kept
+							if (inSentence(m, textStarts.get(i), textEnds.get(i)))
+								docMapped.add(m);
+						} else {
+							//matchers may cache their mentions, so the coordinates are changed on copies
+							Mention c = m.clone();
+							if (c.getStart() >= 0){
+								c.setStart(toTextCoordinate(m.getStart(), subStarts.get(i), textStarts.get(i)));
+								c.setEnd(toTextCoordinate(m.getEnd()-1, subStarts.get(i), textStarts.get(i))+1);
+							}
+							docMapped.add(c);
+						}
+					}
+				}
+
+				mapped.add(docMapped);
 			}
-		});
 
-		return sb.toString();
+			res.add(mapped);
+		}
+
+		return res;
+	}
+
+	/**
+	 * @return whether m lies fully within one of the sentences (given by their start and end coordinates, in order)
+	 */
+	private static boolean inSentence(Mention m, List<Integer> starts, List<Integer> ends){
+		int lo = 0;
+		int hi = starts.size() - 1;
+
+		//find the last sentence starting at or before the mention
+		while (lo < hi){
+			int mid = (lo + hi + 1) / 2;
+			if (starts.get(mid) <= m.getStart())
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		return starts.get(lo) <= m.getStart() && m.getEnd() <= ends.get(lo);
+	}
+
+	/**
+	 * @return the coordinate in the full text of a coordinate in the concatenated trigger sentences
+	 */
+	private static int toTextCoordinate(int subCoordinate, List<Integer> subStarts, List<Integer> textStarts){
+		int lo = 0;
+		int hi = subStarts.size() - 1;
+
+		//find the last sentence starting at or before the coordinate
+		while (lo < hi){
+			int mid = (lo + hi + 1) / 2;
+			if (subStarts.get(mid) <= subCoordinate)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		return textStarts.get(lo) + subCoordinate - subStarts.get(lo);
 	}
 
 	/**
@@ -171,7 +420,7 @@ public class ExpressionMatcher extends Matcher {
 	 * @param text
 	 * @return
 	 */
-	private ExpressionMention associate(Mention trigger, List<Mention> genes, List<Mention> locations, List<Mention> species, String text) {
+	private ExpressionMention associate(Mention trigger, MentionIndex genes, MentionIndex locations, MentionIndex species, String text) {
 		Mention gene=null,location=null,sp=null;
 
 		//while species information is extracted here, it is not actually used in output
@@ -196,7 +445,7 @@ public class ExpressionMatcher extends Matcher {
 				//check that there's enough space around the trigger on either side
 				if (text.length() > tend + 5 && tstart > 4){
 					if (text.substring(tstart-4, tend+4).equals(" is " + trigger.getText() + " in ")){
-						Pair<Mention> mentions = checkForPattern(genes, -1, tstart-4, locations, tend+4, -1);
+						Pair<Mention> mentions = checkForPattern(genes.asList(), -1, tstart-4, locations.asList(), tend+4, -1);
 						if (mentions != null){
 							gene = mentions.getX();
 							location = mentions.getY();
@@ -213,7 +462,7 @@ public class ExpressionMatcher extends Matcher {
 				//check that there's enough space around the trigger on either side
 				if (inIndex != -1 && text.length() > inIndex + 5){
 					if (text.substring(tstart, tend+4).equals(trigger.getText() + " of ")){
-						Pair<Mention> mentions = checkForPattern(genes, tend + 4, inIndex, locations, inIndex+4, -1);
+						Pair<Mention> mentions = checkForPattern(genes.asList(), tend + 4, inIndex, locations.asList(), inIndex+4, -1);
 						if (mentions != null){
 							gene = mentions.getX();
 							location = mentions.getY();
@@ -225,14 +474,14 @@ public class ExpressionMatcher extends Matcher {
 
 		//if none of the above apply, pick closest gene and tissue		
 		if (gene == null)
-			gene = Mention.findClosestMention(genes, trigger.getStart());
+			gene = genes.findClosestMention(trigger.getStart());
 		if (location == null)
-			location = Mention.findClosestMention(locations, trigger.getStart());
+			location = locations.findClosestMention(trigger.getStart());
 		if (sp == null)
-			sp = Mention.findClosestMention(species, trigger.getStart());
+			sp = species.findClosestMention(trigger.getStart());
 
-		Mention[] geneGroup = getGroup(genes, gene);
-		Mention[] locationGroup = getGroup(locations, location);
+		Mention[] geneGroup = getGroup(genes.asList(), gene);
+		Mention[] locationGroup = getGroup(locations.asList(), location);
 		Mention[] speciesGroup = sp != null ? new Mention[]{sp} : null;
 
 		return new ExpressionMention(geneGroup,trigger,locationGroup,speciesGroup);
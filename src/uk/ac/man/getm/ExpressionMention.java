@@ -18,12 +18,21 @@ import uk.ac.man.entitytagger.Mention;
 	private Mention trigger;
 	private Mention[] locations;
 	private Mention[] species;
-	private String context = "test";
+	private String context = null;
 
 	/**
-	 * @return the context
+	 * the sentence that the context is rendered from, if it has not been rendered yet (shared by the mentions of the sentence)
+	 */
+	private transient SentenceContext sentence = null;
+
+	/**
+	 * @return the context (rendered when first requested, if set through setSentence())
 	 */
 	public String getContext() {
+		if (context == null && sentence != null){
+			context = sentence.render(this);
+			sentence = null;
+		}
 		return context;
 	}
 
@@ -32,6 +41,15 @@ import uk.ac.man.entitytagger.Mention;
 	 */
 	public void setContext(String context) {
 		this.context = context;
+		this.sentence = null;
+	}
+
+	/**
+	 * @param sentence the sentence that the context should be rendered from, if requested
+	 */
+	void setSentence(SentenceContext sentence) {
+		this.context = null;
+		this.sentence = sentence;
 	}
 
 	public ExpressionMention(Mention[] actors, Mention trigger, Mention[] locations, Mention[] species){
@@ -16,10 +16,10 @@ import uk.ac.man.entitytagger.Mention;
 import uk.ac.man.entitytagger.doc.TaggedDocument;
 import uk.ac.man.entitytagger.matching.MatchOperations;
 import uk.ac.man.entitytagger.matching.Matcher;
-import uk.ac.man.entitytagger.matching.matchers.ConcurrentMatcher;
 
 import martin.common.ArgParser;
 import martin.common.ComparableTuple;
+import martin.common.FlatteningIterator;
 import martin.common.Loggers;
 import martin.common.compthreads.IteratorBasedMaster;
 
@@ -35,7 +35,16 @@ public class ExpressionMiner {
 		Matcher geneMatcher = EntityTagger.getMatcher(ap, logger, "-genes");
 		Matcher anatomyMatcher = EntityTagger.getMatcher(ap, logger, "-anatomy");
 		Matcher speciesMatcher = EntityTagger.getMatcher(ap, logger, "-species");
-		return new ExpressionMatcher(speciesMatcher, geneMatcher, anatomyMatcher, triggerMatcher); 
+
+		//number of the four matchers that may run concurrently for a single document (1 runs them one after the other)
+		int fanOut = ap.getInt("fanOut", 1);
+
+		ExpressionMatcher expressionMatcher = new ExpressionMatcher(speciesMatcher, geneMatcher, anatomyMatcher, triggerMatcher, fanOut);
+
+		//if set, genes, species and anatomy are only matched in sentences that contain triggers
+		expressionMatcher.setTriggerFirst(ap.containsKey("triggerFirst"));
+
+		return expressionMatcher; 
 	}
 
 	public static void main(String[] args){
@@ -43,10 +52,19 @@ public class ExpressionMiner {
 		Logger logger = Loggers.getDefaultLogger(ap);
 
 		int numThreads = ap.getInt("threads", 1);
+
+		//number of threads used for formatting the output (--parseThreads, for parsing the input, is handled by DocumentParser)
+		int writeThreads = ap.getInt("writeThreads", 1);
+
+		//if set, no new documents are processed while the processed documents waiting to be written are estimated to use more than this many MB
+		Long maxInFlightBytes = ap.containsKey("maxInFlightMB") ? ap.getInt("maxInFlightMB") * 1024L * 1024L : null;
 		
 		//report specifies how often progress reports should be printed (e.g. every 1000 documents). Default is -1, which is no progress reports at all.
 		int report = ap.getInt("report", -1);
 
+		//if set, documents are written as soon as they are processed rather than in input order
+		boolean ordered = !ap.containsKey("unordered");
+
 		DocumentIterator documents = DocumentParser.getDocuments(ap,logger);
 		
 		//create the object that will do the mining for us
@@ -56,7 +74,7 @@ public class ExpressionMiner {
 
 		//processes the documents and stores the results to a file
 		if (ap.containsKey("out"))
-			MatchOperations.runToFile(expressionMatcher, documents, numThreads, report, ap.getFile("out"), logger);
+			MatchOperations.runToFile(expressionMatcher, documents, numThreads, report, ap.getFile("out"), logger, ordered, writeThreads, maxInFlightBytes);
 
 		//processes the documents and stores the results to a file, in HTML format for displaying
 		if (ap.containsKey("outHTML"))
@@ -64,7 +82,7 @@ public class ExpressionMiner {
 
 		//process the documents and stores the results to a file, with the addition of text surrounding the mention
 		if (ap.containsKey("outContext"))
-			runContext(expressionMatcher, documents, numThreads, report, ap.getFile("outContext"), logger);
+			runContext(expressionMatcher, documents, numThreads, report, ap.getFile("outContext"), logger, ordered, maxInFlightBytes);
 	}
 
 	/**
@@ -75,29 +93,29 @@ public class ExpressionMiner {
 	 * @param report how often to print a progress report (every 1000 documents, 10000, 100000...). Don't print at all if report=-1
 	 * @param outFile 
 	 * @param logger
+	 * @param ordered whether documents should be written in input order
+	 * @param maxInFlightBytes budget for processed documents waiting to be written (null for no budget)
 	 */
 	private static void runContext(Matcher expressionMatcher,
 			DocumentIterator documents, int numThreads, int report, File outFile,
-			Logger logger) {
+			Logger logger, boolean ordered, Long maxInFlightBytes) {
 
 		try{
 			BufferedWriter outStream = new BufferedWriter(new FileWriter(outFile));
 			
 			//set up concurrent processing, start thread
-			ConcurrentMatcher cm = new ConcurrentMatcher(expressionMatcher,documents);
-			IteratorBasedMaster<TaggedDocument> master = new IteratorBasedMaster<TaggedDocument>(cm,numThreads);
-			master.startThread();
+			IteratorBasedMaster<List<TaggedDocument>> master = MatchOperations.startMatching(expressionMatcher, documents, numThreads, ordered, maxInFlightBytes);
 			
 			int c = 0; 
 			
-			for (TaggedDocument td : master){
+			for (TaggedDocument td : new FlatteningIterator<TaggedDocument>(master)){
 				List<Mention> mentions = td.getRawMatches();
 				
 				for (Mention m : mentions)
 					outStream.write(m.toString() + "\t" + ((ExpressionMention) m).getContext() + "\n");
 				
 				if (report != -1 && ++c % report == 0)
-					logger.info("%t: Processed " + c + " documents.\n");
+					logger.info("%t: Processed " + c + " documents" + MatchOperations.getBufferStatus(master) + ".\n");
 			}			
 			logger.info("%t: Completed.\n");
 			outStream.close();
@@ -0,0 +1,77 @@
+package uk.ac.man.getm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import martin.common.Function;
+import martin.common.Pair;
+import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.doc.TaggedDocument;
+import uk.ac.man.entitytagger.doc.TaggedDocument.Format;
+
+/**
+ * The sentence that a set of gene expression mentions were found in, from which their HTML context strings are rendered on demand.
+ * A single instance is shared by all the mentions of a sentence, so that the sentence text is only extracted once, and only if any
+ * context actually is requested (e.g. when writing to --outContext).
+ * @author Martin
+ */
+class SentenceContext {
+	private String text;
+	private int s;
+	private int e;
+	private String sentence = null;
+
+	/**
+	 * @param text the document text
+	 * @param s the start of the sentence
+	 * @param e the end of the sentence
+	 */
+	SentenceContext(String text, int s, int e){
+		this.text = text;
+		this.s = s;
+		this.e = e;
+	}
+
+	/**
+	 * @return the sentence, with tabs and line breaks replaced by spaces
+	 */
+	private String getSentence(){
+		if (sentence == null){
+			String context = text.substring(s,e);
+			context = context.replace('\t', ' ');
+			context = context.replace('\r', ' ');
+			context = context.replace('\n', ' ');
+			sentence = context;
+		}
+		return sentence;
+	}
+
+	/**
+	 * Creates a HTML-format context string for a gene expression mention
+	 * @param em the mention, which should lie within the sentence
+	 * @return a string such as e.g. "We have found that IL-2 is expressed in T-cells." with IL-2, expressed and T-cells italic and underlined.
+	 */
+	String render(ExpressionMention em){
+		Mention[] actors = em.getActors();
+		Mention[] locations = em.getLocations();
+
+		List<Mention> mentions = new ArrayList<Mention>(1 + actors.length + locations.length);
+		mentions.add(em.getTrigger().clone());
+		for (Mention m : actors)
+			mentions.add(m.clone());
+		for (Mention m : locations)
+			mentions.add(m.clone());
+		for (Mention m : mentions){
+			m.setStart(m.getStart()-s);
+			m.setEnd(m.getEnd()-s);
+		}
+
+		StringBuffer sb = TaggedDocument.toHTML(getSentence(), mentions, Format.HTML, false, new Function<Pair<String>>() {
+			public Pair<String> function(Object[] args) {
+				return new Pair<String>("<u><i>","</i></u>");
+			}
+		});
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,153 @@
+package uk.ac.man.getm;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.man.documentparser.dataholders.Document;
+import uk.ac.man.entitytagger.Mention;
+import uk.ac.man.entitytagger.matching.DocumentAnalysis;
+import uk.ac.man.entitytagger.matching.Matcher;
+import uk.ac.man.entitytagger.matching.matchers.PrecomputedMatcher;
+
+/**
+ * Checks that ExpressionMatcher gives the same gene expression mentions with and without setTriggerFirst(), when the gene
+ * mentions come from a PrecomputedMatcher (as in the default GETM setup, where they are looked up by document id).
+ * Random documents are matched with word-list species, anatomy and trigger matchers, and with precomputed gene mentions
+ * stored to a temporary file.
+ * Usage: TriggerFirstChecker [number of documents] [seed]
+ * @author Martin
+ */
+public class TriggerFirstChecker {
+	private static final String[] GENES = {"abc1", "xyz2", "p53", "brca1", "myc"};
+	private static final String[] ANATOMY = {"liver", "brain", "kidney", "heart", "lung"};
+	private static final String[] SPECIES = {"human", "mouse", "rat"};
+	private static final String[] TRIGGERS = {"expressed", "expression", "transcribed"};
+	private static final String[] WORDS = {"the", "was", "in", "of", "and", "we", "found", "cells", "is", "a", "study", "levels"};
+
+	/**
+	 * Matches the words of a word list (delimited by non-alphanumeric characters) in the text, returning the mentions
+	 * sorted by their coordinates (as the dictionary matchers do)
+	 */
+	private static class WordMatcher extends Matcher {
+		private String[] words;
+		private String type;
+
+		WordMatcher(String[] words, String type){
+			this.words = words;
+			this.type = type;
+		}
+
+		public List<Mention> match(String text, Document doc){
+			List<Mention> res = new ArrayList<Mention>();
+			for (String w : words){
+				int s = text.indexOf(w);
+				while (s != -1){
+					Mention m = new Mention(type + ":" + w, s, s + w.length(), w);
+					if (isValidMatch(text, m)){
+						m.setDocid(doc != null ? doc.getID() : null);
+						res.add(m);
+					}
+					s = text.indexOf(w, s + 1);
+				}
+			}
+			Collections.sort(res);
+			return res;
+		}
+	}
+
+	private static String randomText(Random r){
+		StringBuffer sb = new StringBuffer();
+		int numSentences = 1 + r.nextInt(8);
+
+		for (int i = 0; i < numSentences; i++){
+			int numWords = 3 + r.nextInt(12);
+			for (int j = 0; j < numWords; j++){
+				String[] list;
+				int k = r.nextInt(20);
+				if (k == 0)
+					list = TRIGGERS;
+				else if (k < 3)
+					list = GENES;
+				else if (k < 5)
+					list = ANATOMY;
+				else if (k < 6)
+					list = SPECIES;
+				else
+					list = WORDS;
+
+				String word = list[r.nextInt(list.length)];
+				if (j > 0)
+					sb.append(' ').append(word);
+				else
+					sb.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+			}
+			sb.append(". ");
+		}
+
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numDocuments = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+		Random r = new Random(seed);
+		List<DocumentAnalysis> analyses = new ArrayList<DocumentAnalysis>();
+		for (int i = 0; i < numDocuments; i++){
+			Document doc = new Document("doc" + i, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
+			analyses.add(new DocumentAnalysis(randomText(r), doc));
+		}
+
+		//gene mentions are precomputed over the full texts, and looked up by document id
+		Matcher geneWords = new WordMatcher(GENES, "gene");
+		File file = File.createTempFile("genes", ".tsv");
+		file.deleteOnExit();
+		BufferedWriter outStream = new BufferedWriter(new FileWriter(file));
+		for (DocumentAnalysis analysis : analyses)
+			for (Mention m : geneWords.match(analysis.getText(), analysis.getDocument()))
+				outStream.write(m.getIdsToString() + "\t" + m.getDocid() + "\t" + m.getStart() + "\t" + m.getEnd() + "\t" + m.getText() + "\n");
+		outStream.close();
+
+		Matcher genes = new PrecomputedMatcher(file);
+		Matcher species = new WordMatcher(SPECIES, "species");
+		Matcher anatomy = new WordMatcher(ANATOMY, "anatomy");
+		Matcher triggers = new WordMatcher(TRIGGERS, "trigger");
+
+		ExpressionMatcher defaultMatcher = new ExpressionMatcher(species, genes, anatomy, triggers);
+		ExpressionMatcher triggerFirstMatcher = new ExpressionMatcher(species, genes, anatomy, triggers);
+		triggerFirstMatcher.setTriggerFirst(true);
+
+		int numMentions = 0;
+		int numDifferent = 0;
+
+		for (int i = 0; i < analyses.size(); i += 100){
+			List<DocumentAnalysis> batch = analyses.subList(i, Math.min(i + 100, analyses.size()));
+			List<List<Mention>> expected = defaultMatcher.matchBatch(batch);
+			List<List<Mention>> actual = triggerFirstMatcher.matchBatch(batch);
+
+			for (int j = 0; j < batch.size(); j++){
+				numMentions += expected.get(j).size();
+				if (!toString(expected.get(j)).equals(toString(actual.get(j)))){
+					if (numDifferent < 10)
+						System.out.println(batch.get(j).getDocument().getID() + ":\n  default:      " + toString(expected.get(j)) + "\n  triggerFirst: " + toString(actual.get(j)));
+					numDifferent++;
+				}
+			}
+		}
+
+		System.out.println(numDocuments + " documents, " + numMentions + " gene expression mentions, " + numDifferent + " documents with different results.");
+		System.exit(numDifferent == 0 ? 0 : 1);
+	}
+
+	private static String toString(List<Mention> mentions){
+		StringBuffer sb = new StringBuffer();
+		for (Mention m : mentions)
+			sb.append(m.toString()).append('\n');
+		return sb.toString();
+	}
+}